@@ -1,19 +1,37 @@
 package com.redhat.ceylon.compiler.typechecker;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleValidator;
 import com.redhat.ceylon.compiler.typechecker.context.Context;
+import com.redhat.ceylon.compiler.typechecker.context.PhaseExecutor;
+import com.redhat.ceylon.compiler.typechecker.context.PhaseExecutor.Phase;
 import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
 import com.redhat.ceylon.compiler.typechecker.context.PhasedUnits;
+import com.redhat.ceylon.compiler.typechecker.context.ProducedTypeCache;
+import com.redhat.ceylon.compiler.typechecker.context.UnitScheduler;
 import com.redhat.ceylon.compiler.typechecker.io.VFS;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
+import com.redhat.ceylon.compiler.typechecker.model.ImportList;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.model.ProducedTypeInterner;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
 import com.redhat.ceylon.compiler.typechecker.tree.Message;
 import com.redhat.ceylon.compiler.typechecker.util.AssertionVisitor;
 import com.redhat.ceylon.compiler.typechecker.util.ModuleManagerFactory;
 import com.redhat.ceylon.compiler.typechecker.util.StatisticsVisitor;
+import com.redhat.ceylon.compiler.typechecker.util.UnitDependencyVisitor;
 
 /**
  * Executes type checking upon construction and retrieve a CompilationUnit object for a given File.
@@ -27,27 +45,52 @@ public class TypeChecker {
 
     private final boolean verbose;
     private final boolean statistics;
-    private final Context context;
-    private final PhasedUnits phasedUnits;
+    private Context context;
+    private PhasedUnits phasedUnits;
     private List<PhasedUnits> phasedUnitsOfDependencies;
     private final boolean verifyDependencies;
     private final AssertionVisitor assertionVisitor;
     private final StatisticsVisitor statsVisitor;
+    private final int parallelism;
+    private final boolean releaseDependencyTrees;
+    private final VFS vfs;
+    private final List<VirtualFile> srcDirectories;
+    private final RepositoryManager repositoryManager;
+    private final ModuleManagerFactory moduleManagerFactory;
+    private final List<String> moduleFilters;
+    private final String encoding;
+    //the full paths of the units with errors, maintained
+    //once update() has recorded the unit dependencies
+    private Set<String> unitsWithErrors;
 
     //package level
     TypeChecker(VFS vfs, List<VirtualFile> srcDirectories, RepositoryManager repositoryManager, boolean verifyDependencies,
             AssertionVisitor assertionVisitor, ModuleManagerFactory moduleManagerFactory, boolean verbose, boolean statistics,
-            List<String> moduleFilters, String encoding) {
-        long start = System.nanoTime();
+            List<String> moduleFilters, String encoding, int parallelism, 
+            boolean releaseDependencyTrees) {
         this.verbose = verbose;
         this.statistics = statistics;
-        this.context = new Context(repositoryManager, vfs);
-        this.phasedUnits = new PhasedUnits(context, moduleManagerFactory);
+        this.parallelism = parallelism;
+        this.releaseDependencyTrees = releaseDependencyTrees;
         this.verifyDependencies = verifyDependencies;
         this.assertionVisitor = assertionVisitor;
+        this.vfs = vfs;
+        this.srcDirectories = srcDirectories;
+        this.repositoryManager = repositoryManager;
+        this.moduleManagerFactory = moduleManagerFactory;
+        this.moduleFilters = moduleFilters;
+        this.encoding = encoding;
         statsVisitor = new StatisticsVisitor();
+        parseUnits();
+    }
+
+    private void parseUnits() {
+        long start = System.nanoTime();
+        context = new Context(repositoryManager, vfs);
+        phasedUnits = new PhasedUnits(context, moduleManagerFactory);
         phasedUnits.setModuleFilters(moduleFilters);
         phasedUnits.setEncoding(encoding);
+        phasedUnits.setParallelism(parallelism);
         phasedUnits.parseUnits(srcDirectories);
         long time = System.nanoTime()-start;
         if(statistics)
@@ -67,6 +110,11 @@ public class TypeChecker {
         this.phasedUnitsOfDependencies = phasedUnitsOfDependencies;
     }
 
+    /**
+     * The context of the type checker, which is replaced
+     * when {@link #update(Collection, Collection)} has to
+     * check every source file again.
+     */
     public Context getContext() {
         return context;
     }
@@ -129,6 +177,273 @@ public class TypeChecker {
         	System.out.println("Type checked in " + time/1000000 + " ms");
     }
 
+    /**
+     * Type check the given changed and removed source 
+     * files again, along with every unit which depends,
+     * directly or transitively, upon them, keeping the 
+     * models of all other units. The affected units are
+     * parsed again, since their trees and models refer 
+     * to the declarations being replaced. 
+     * 
+     * Since the dependencies recorded for a unit are the
+     * declarations it refers to directly, the other units
+     * of the package of an affected unit, and the units 
+     * which import from the package of a changed unit, 
+     * are also checked again, as are units with errors in
+     * the module of a changed file, since the file might 
+     * now declare something they could not resolve. The 
+     * units keep the order in which a new type checker
+     * would find them.
+     * 
+     * The dependencies between units are recorded in
+     * {@link Unit#getDependentsOf()} the first time 
+     * this method is called.
+     * 
+     * Changes to module or package descriptors, and new 
+     * files in a directory with no other source files, 
+     * cause every source file to be parsed and type 
+     * checked again, with a new {@link Context}.
+     * 
+     * @param changed new or modified source files
+     * @param removed deleted source files
+     * @return the units which were type checked again
+     */
+    public List<PhasedUnit> update(Collection<VirtualFile> changed, 
+            Collection<VirtualFile> removed) {
+        long start = System.nanoTime();
+        //resolve the packages of new files before
+        //discarding anything
+        Map<VirtualFile,PhasedUnit> siblings = 
+                new LinkedHashMap<VirtualFile,PhasedUnit>();
+        for (VirtualFile file: changed) {
+            if (isDescriptor(file)) {
+                return checkAgain(start);
+            }
+            if (phasedUnits.getPhasedUnit(file)==null) {
+                PhasedUnit sibling = findSibling(file);
+                if (sibling==null) {
+                    return checkAgain(start);
+                }
+                siblings.put(file, sibling);
+            }
+        }
+        for (VirtualFile file: removed) {
+            if (isDescriptor(file)) {
+                return checkAgain(start);
+            }
+        }
+        if (unitsWithErrors==null) {
+            unitsWithErrors = new HashSet<String>();
+            recordDependencies(phasedUnits.getPhasedUnits());
+        }
+        
+        //find the units to check again
+        Map<String,PhasedUnit> affected = 
+                new HashMap<String,PhasedUnit>();
+        LinkedList<PhasedUnit> queue = new LinkedList<PhasedUnit>();
+        Set<String> removedPaths = new HashSet<String>();
+        Set<Package> changedPackages = new HashSet<Package>();
+        Set<Module> changedModules = new HashSet<Module>();
+        for (VirtualFile file: removed) {
+            PhasedUnit pu = phasedUnits.getPhasedUnit(file);
+            if (pu!=null) {
+                removedPaths.add(file.getPath());
+                changedPackages.add(pu.getPackage());
+                addAffected(pu, affected, queue);
+            }
+        }
+        for (VirtualFile file: changed) {
+            PhasedUnit pu = phasedUnits.getPhasedUnit(file);
+            if (pu==null) {
+                pu = siblings.get(file);
+            }
+            addAffected(pu, affected, queue);
+            changedPackages.add(pu.getPackage());
+            changedModules.add(pu.getPackage().getModule());
+        }
+        Map<Package,List<PhasedUnit>> unitsPerPackage = 
+                new HashMap<Package,List<PhasedUnit>>();
+        for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+            List<PhasedUnit> units = unitsPerPackage.get(pu.getPackage());
+            if (units==null) {
+                units = new ArrayList<PhasedUnit>();
+                unitsPerPackage.put(pu.getPackage(), units);
+            }
+            units.add(pu);
+            //a changed file might declare or remove 
+            //something that another unit imports, or
+            //could not resolve
+            for (ImportList importList: pu.getUnit().getImportLists()) {
+                if (changedPackages.contains(importList.getImportedScope())) {
+                    addAffected(pu, affected, queue);
+                }
+            }
+            if (unitsWithErrors.contains(pu.getUnit().getFullPath()) &&
+                    changedModules.contains(pu.getPackage().getModule())) {
+                addAffected(pu, affected, queue);
+            }
+        }
+        while (!queue.isEmpty()) {
+            PhasedUnit pu = queue.removeFirst();
+            for (String path: pu.getUnit().getDependentsOf()) {
+                PhasedUnit dependent = phasedUnits.getPhasedUnit(path);
+                if (dependent==null) {
+                    dependent = phasedUnits.getPhasedUnitFromRelativePath(path);
+                }
+                addAffected(dependent, affected, queue);
+            }
+            //the toplevel declarations of a package are
+            //scanned for duplicates in the order of its
+            //units
+            List<PhasedUnit> units = unitsPerPackage.get(pu.getPackage());
+            if (units!=null) {
+                for (PhasedUnit unit: units) {
+                    addAffected(unit, affected, queue);
+                }
+            }
+        }
+        
+        //discard the old units
+        Set<Unit> discardedUnits = new HashSet<Unit>();
+        for (PhasedUnit pu: affected.values()) {
+            phasedUnits.removePhasedUnitForRelativePath(pu.getPathRelativeToSrcDir());
+            unitsWithErrors.remove(pu.getUnit().getFullPath());
+            discardedUnits.add(pu.getUnit());
+        }
+        //the cached supertypes, interned types and 
+        //declaration ids may refer to the discarded 
+        //declarations
+        for (Module module: context.getModules().getListOfModules()) {
+            module.clearDeclarationIds(discardedUnits);
+            ProducedTypeCache cache = module.getCache();
+            if (cache!=null) {
+                cache.clear();
+            }
+            ProducedTypeInterner interner = module.getInterner();
+            if (interner!=null) {
+                interner.clear();
+            }
+            module.clearLanguageDeclarations();
+            module.clearHierarchyCaches();
+        }
+        
+        //parse them again, in the order in which the
+        //source directories list them, so that the 
+        //units of each package keep their order
+        Map<String,VirtualFile> filesToParse = 
+                new HashMap<String,VirtualFile>();
+        for (PhasedUnit pu: affected.values()) {
+            String path = pu.getUnitFile().getPath();
+            if (!removedPaths.contains(path)) {
+                filesToParse.put(path, pu.getUnitFile());
+            }
+        }
+        for (VirtualFile file: siblings.keySet()) {
+            filesToParse.put(file.getPath(), file);
+        }
+        Set<String> parsedPaths = 
+                new HashSet<String>(filesToParse.keySet());
+        List<String> paths = phasedUnits.getSourceFilePaths(srcDirectories);
+        for (String path: paths) {
+            VirtualFile file = filesToParse.remove(path);
+            if (file!=null) {
+                parseAgain(file, affected.get(path), siblings);
+            }
+        }
+        for (VirtualFile file: filesToParse.values()) {
+            parseAgain(file, affected.get(file.getPath()), siblings);
+            paths.add(file.getPath());
+        }
+        phasedUnits.sortPhasedUnits(paths);
+        List<PhasedUnit> listOfUnits = new ArrayList<PhasedUnit>();
+        for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+            if (parsedPaths.contains(pu.getUnitFile().getPath())) {
+                listOfUnits.add(pu);
+            }
+        }
+        
+        typeCheck(listOfUnits);
+        recordDependencies(listOfUnits);
+        long time = System.nanoTime()-start;
+        if(statistics)
+            System.out.println("Updated " + listOfUnits.size() + 
+                    " units in " + time/1000000 + " ms");
+        return listOfUnits;
+    }
+
+    private void parseAgain(VirtualFile file, PhasedUnit pu, 
+            Map<VirtualFile,PhasedUnit> siblings) {
+        if (pu==null) {
+            pu = siblings.get(file);
+        }
+        phasedUnits.parseUnit(file, pu.getSrcDir(), pu.getPackage());
+    }
+
+    /**
+     * Parse and type check every source file again, with
+     * a new context.
+     */
+    private List<PhasedUnit> checkAgain(long start) {
+        unitsWithErrors = null;
+        parseUnits();
+        executePhases(phasedUnits, true);
+        List<PhasedUnit> listOfUnits = phasedUnits.getPhasedUnits();
+        long time = System.nanoTime()-start;
+        if(statistics)
+            System.out.println("Checked " + listOfUnits.size() + 
+                    " units again in " + time/1000000 + " ms");
+        return listOfUnits;
+    }
+
+    private static void addAffected(PhasedUnit pu, 
+            Map<String,PhasedUnit> affected, 
+            LinkedList<PhasedUnit> queue) {
+        //descriptors are only processed along with
+        //the modules
+        if (pu!=null && !isDescriptor(pu.getUnitFile())) {
+            String path = pu.getUnitFile().getPath();
+            if (!affected.containsKey(path)) {
+                affected.put(path, pu);
+                queue.add(pu);
+            }
+        }
+    }
+
+    private static boolean isDescriptor(VirtualFile file) {
+        String name = file.getName();
+        return name.equals(ModuleManager.MODULE_FILE) || 
+                name.equals(ModuleManager.PACKAGE_FILE);
+    }
+
+    /**
+     * Find a unit in the same directory as the given new
+     * file, to determine its package and source directory,
+     * or null if there is none.
+     */
+    private PhasedUnit findSibling(VirtualFile file) {
+        String path = file.getPath();
+        String dir = path.substring(0, path.lastIndexOf('/')+1);
+        for (PhasedUnit pu: phasedUnits.getPhasedUnits()) {
+            String puPath = pu.getUnitFile().getPath();
+            if (puPath.startsWith(dir) && 
+                    puPath.indexOf('/', dir.length())<0) {
+                return pu;
+            }
+        }
+        return null;
+    }
+
+    private void recordDependencies(List<PhasedUnit> listOfUnits) {
+        for (PhasedUnit pu: listOfUnits) {
+            UnitDependencyVisitor udv = 
+                    new UnitDependencyVisitor(pu.getUnit());
+            pu.getCompilationUnit().visit(udv);
+            if (udv.hasErrors()) {
+                unitsWithErrors.add(pu.getUnit().getFullPath());
+            }
+        }
+    }
+
     private void executePhases(PhasedUnits phasedUnits, boolean forceSilence) {
         final List<PhasedUnit> listOfUnits = phasedUnits.getPhasedUnits();
 
@@ -148,27 +463,12 @@ public class TypeChecker {
             moduleValidator.verifyModuleDependencyTree();
         }
         phasedUnitsOfDependencies = moduleValidator.getPhasedUnitsOfDependencies();
-
-        for (PhasedUnit pu : listOfUnits) {
-            pu.validateTree();
-            pu.scanDeclarations();
-        }
-        for (PhasedUnit pu : listOfUnits) {
-            pu.scanTypeDeclarations();
-        }
-        for (PhasedUnit pu: listOfUnits) {
-            pu.validateRefinement();
-        }
-        for (PhasedUnit pu : listOfUnits) {
-            pu.analyseTypes();
-        }
-        for (PhasedUnit pu: listOfUnits) {
-            pu.analyseFlow();
-        }
-        for (PhasedUnit pu: listOfUnits) {
-            pu.analyseUsage();
+        if (releaseDependencyTrees) {
+            releaseTreesOfDependencies();
         }
 
+        typeCheck(listOfUnits);
+
         if (!forceSilence) {
             for (PhasedUnit pu : listOfUnits) {
                 if (verbose) {
@@ -184,6 +484,91 @@ public class TypeChecker {
         
     }
     
+    /**
+     * Discard the trees of the units of dependencies which
+     * have been through their last phase, that is, whose
+     * refinement has been validated.
+     */
+    private void releaseTreesOfDependencies() {
+        if (phasedUnitsOfDependencies!=null) {
+            for (PhasedUnits units: phasedUnitsOfDependencies) {
+                for (PhasedUnit pu: units.getPhasedUnits()) {
+                    if (pu.isRefinementValidated()) {
+                        pu.releaseTree();
+                    }
+                }
+            }
+        }
+    }
+    
+    private void typeCheck(List<PhasedUnit> listOfUnits) {
+        final PhaseExecutor executor = new PhaseExecutor(parallelism);
+        try {
+            //toplevel declarations are checked for duplicates
+            //within their package, so the units of a package
+            //must be scanned in order
+            executor.runInParallelPerPackage(listOfUnits, new Phase() {
+                @Override
+                public void run(PhasedUnit pu) {
+                    pu.validateTree();
+                    pu.scanDeclarations();
+                }
+            });
+            //these phases assign and repair the supertypes 
+            //and members of declarations which are visible 
+            //to other units, so their outcome depends upon 
+            //the order of the units
+            executor.runSequentially(listOfUnits, new Phase() {
+                @Override
+                public void run(PhasedUnit pu) {
+                    pu.scanTypeDeclarations();
+                }
+            });
+            executor.runSequentially(listOfUnits, new Phase() {
+                @Override
+                public void run(PhasedUnit pu) {
+                    pu.validateRefinement();
+                }
+            });
+            //from here on, each unit only reads the model of
+            //other units, except for the inferred types of 
+            //toplevels, so each unit can proceed as soon as
+            //the units it depends upon have been analysed, 
+            //along with the preceding units of its package, 
+            //if either declares an inferred toplevel
+            if (executor.isParallel()) {
+                UnitScheduler scheduler = executor.createScheduler();
+                scheduler.run(listOfUnits);
+                if (statistics) {
+                    scheduler.printCriticalPath(System.out);
+                }
+            }
+            else {
+                executor.runSequentially(listOfUnits, new Phase() {
+                    @Override
+                    public void run(PhasedUnit pu) {
+                        pu.analyseTypes();
+                    }
+                });
+                executor.runSequentially(listOfUnits, new Phase() {
+                    @Override
+                    public void run(PhasedUnit pu) {
+                        pu.analyseFlow();
+                    }
+                });
+                executor.runSequentially(listOfUnits, new Phase() {
+                    @Override
+                    public void run(PhasedUnit pu) {
+                        pu.analyseUsage();
+                    }
+                });
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
     public int getErrors(){
     	return assertionVisitor.getErrors();
     }
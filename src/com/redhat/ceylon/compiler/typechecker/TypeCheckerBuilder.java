@@ -38,6 +38,8 @@ public class TypeCheckerBuilder {
     private ModuleManagerFactory moduleManagerFactory;
     private RepositoryManager repositoryManager;
     private List<String> moduleFilters = new ArrayList<String>();
+    private int parallelism = 1;
+    private boolean releaseDependencyTrees = false;
 
     public TypeCheckerBuilder() {}
 
@@ -126,6 +128,41 @@ public class TypeCheckerBuilder {
         return this;
     }
 
+    /**
+     * Lex and parse the source files, and type check the 
+     * units of each phase, concurrently, using the given 
+     * number of threads, with a barrier between phases. 
+     * The results are identical to the default, sequential, 
+     * run.
+     *
+     * @param parallelism the number of threads, 1 by default
+     */
+    public TypeCheckerBuilder parallelism(int parallelism) {
+        if (parallelism<1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Discard the syntax trees, tokens, and per-node errors
+     * of the units of source dependencies, for example, the
+     * sources of the language module, as soon as each unit
+     * has been through the last phase it is subject to,
+     * keeping only their model and a copy of their errors.
+     * Reduces the memory needed to type check against large
+     * source dependencies, but the trees of the units of
+     * dependencies are no longer available from the type
+     * checker.
+     *
+     * @see com.redhat.ceylon.compiler.typechecker.context.PhasedUnit#releaseTree()
+     */
+    public TypeCheckerBuilder releaseDependencyTrees(boolean releaseDependencyTrees) {
+        this.releaseDependencyTrees = releaseDependencyTrees;
+        return this;
+    }
+
     public TypeChecker getTypeChecker() {
         if (repositoryManager == null) {
             repositoryManager = CeylonUtils.repoManager()
@@ -133,7 +170,8 @@ public class TypeCheckerBuilder {
                     .buildManager();
         }
         return new TypeChecker(vfs, srcDirectories, repositoryManager, verifyDependencies, assertionVisitor,
-                moduleManagerFactory, verbose, statistics, moduleFilters, encoding);
+                moduleManagerFactory, verbose, statistics, moduleFilters, encoding, parallelism, 
+                releaseDependencyTrees);
     }
 
 }
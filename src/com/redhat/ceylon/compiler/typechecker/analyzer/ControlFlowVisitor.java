@@ -22,100 +22,117 @@ import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
  */
 public class ControlFlowVisitor extends Visitor {
     
-    private boolean definitelyReturns = false;
-    private boolean definitelyBreaksOrContinues = false;
-    private boolean canReturn = false;
-    private boolean canExecute = true;
-    private Boolean possiblyBreaks = null;
+    private static final int DEFINITELY_RETURNS = 0;
+    private static final int DEFINITELY_BREAKS_OR_CONTINUES = 1;
+    private static final int CAN_RETURN = 2;
+    private static final int CAN_EXECUTE = 3;
+    private static final int IN_LOOP = 4;
+    private static final int POSSIBLY_BREAKS = 5;
+    
+    //the facts which are saved and restored on entering
+    //and leaving a loop, or a declaration in a loop
+    private static final FlowState LOOP = new FlowState(6);
+    static {
+        LOOP.set(IN_LOOP);
+        LOOP.set(POSSIBLY_BREAKS);
+    }
+    
+    private final FlowState state = new FlowState(6);
+    private final FlowState.Stack loops = new FlowState.Stack(6);
+    
+    public ControlFlowVisitor() {
+        state.set(CAN_EXECUTE);
+    }
     
     boolean beginDefiniteReturnScope() {
-        boolean dr = definitelyReturns;
-        definitelyReturns = false;
+        boolean dr = state.get(DEFINITELY_RETURNS);
+        state.clear(DEFINITELY_RETURNS);
         return dr;
     }
         
     boolean beginIndefiniteReturnScope() {
-        return definitelyReturns;
+        return state.get(DEFINITELY_RETURNS);
     }
     
     void endDefiniteReturnScope(boolean dr) {
-        definitelyReturns = dr;
+        state.set(DEFINITELY_RETURNS, dr);
     }
     
     void exit() {
-        definitelyReturns = true;
+        state.set(DEFINITELY_RETURNS);
     }
     
     boolean beginReturnScope(boolean cr) {
-        boolean ocr = canReturn;
-        canReturn = cr;
+        boolean ocr = state.get(CAN_RETURN);
+        state.set(CAN_RETURN, cr);
         return ocr;
     }
     
     void endReturnScope(boolean cr) {
-        canReturn = cr;
+        state.set(CAN_RETURN, cr);
     }
     
     boolean beginStatementScope(boolean ce) {
-        boolean oce = canExecute;
-        canExecute = ce;
+        boolean oce = state.get(CAN_EXECUTE);
+        state.set(CAN_EXECUTE, ce);
         return oce;
     }
     
     void endStatementScope(boolean ce) {
-        canExecute = ce;
+        state.set(CAN_EXECUTE, ce);
     }
     
-    Boolean beginLoop() {
-        Boolean efl = possiblyBreaks;
-        possiblyBreaks = false;
+    int beginLoop() {
+        int efl = loops.push(state);
+        state.set(IN_LOOP);
+        state.clear(POSSIBLY_BREAKS);
         return efl;
     }
     
-    void endLoop(Boolean efl) {
-        possiblyBreaks = efl;
+    void endLoop(int efl) {
+        loops.pop(efl, state, LOOP);
     }
     
     boolean beginLoopScope() {
-        boolean obc = definitelyBreaksOrContinues;
-        definitelyBreaksOrContinues = false;
+        boolean obc = state.get(DEFINITELY_BREAKS_OR_CONTINUES);
+        state.clear(DEFINITELY_BREAKS_OR_CONTINUES);
         return obc;
     }
     
     void exitLoopScope() {
-    	definitelyBreaksOrContinues = true;
+    	state.set(DEFINITELY_BREAKS_OR_CONTINUES);
     }
     
     void endLoopScope(boolean bc) {
-    	definitelyBreaksOrContinues = bc;
+    	state.set(DEFINITELY_BREAKS_OR_CONTINUES, bc);
     }
     
     void exitLoop() {
-        possiblyBreaks = true;
+        state.or(LOOP);
     }
     
     boolean inLoop() {
-        return possiblyBreaks!=null;
+        return state.get(IN_LOOP);
     }
     
-    Boolean pauseLoop() {
-        Boolean efl = possiblyBreaks;
-        possiblyBreaks = null;
+    int pauseLoop() {
+        int efl = loops.push(state);
+        state.andNot(LOOP);
         return efl;
     }
     
-    void unpauseLoop(Boolean efl) {
-        possiblyBreaks = efl;
+    void unpauseLoop(int efl) {
+        loops.pop(efl, state, LOOP);
     }
         
     boolean pauseLoopScope() {
-        Boolean bc = definitelyBreaksOrContinues;
-        definitelyBreaksOrContinues = false;
+        boolean bc = state.get(DEFINITELY_BREAKS_OR_CONTINUES);
+        state.clear(DEFINITELY_BREAKS_OR_CONTINUES);
         return bc;
     }
     
     void unpauseLoopScope(boolean bc) {
-    	definitelyBreaksOrContinues = bc;
+    	state.set(DEFINITELY_BREAKS_OR_CONTINUES, bc);
     }
         
     @Override
@@ -144,7 +161,7 @@ public class ControlFlowVisitor extends Visitor {
     }
 
     private void checkDefiniteReturn(Node that, String name) {
-        if (!definitelyReturns) {
+        if (!state.get(DEFINITELY_RETURNS)) {
             that.addError("does not definitely return: '" + 
                     name + "' has branches which do not end in a return statement");
         }
@@ -190,7 +207,7 @@ public class ControlFlowVisitor extends Visitor {
     @Override
     public void visit(Tree.FunctionArgument that) {
         if (that.getExpression()==null) {
-            Boolean efl = pauseLoop();
+            int efl = pauseLoop();
             boolean bc = pauseLoopScope();
         	boolean c = beginReturnScope(true);
         	boolean d = beginDefiniteReturnScope();
@@ -276,12 +293,12 @@ public class ControlFlowVisitor extends Visitor {
     @Override
     public void visit(Tree.Block that) {
         super.visit(that);
-        that.setDefinitelyReturns(definitelyReturns);
+        that.setDefinitelyReturns(state.get(DEFINITELY_RETURNS));
     }
     
     @Override
     public void visit(Tree.Declaration that) {
-        Boolean efl = pauseLoop();
+        int efl = pauseLoop();
         boolean bc = pauseLoopScope();
         super.visit(that);
         unpauseLoop(efl);
@@ -290,7 +307,7 @@ public class ControlFlowVisitor extends Visitor {
     
     @Override
     public void visit(Tree.TypedArgument that) {
-        Boolean efl = pauseLoop();
+        int efl = pauseLoop();
         boolean bc = pauseLoopScope();
         super.visit(that);
         unpauseLoop(efl);
@@ -313,14 +330,14 @@ public class ControlFlowVisitor extends Visitor {
     }
 
     private void checkExecutableStatementAllowed(Node that) {
-        if (!canExecute) {
+        if (!state.get(CAN_EXECUTE)) {
             that.addError("statement or initializer may not occur directly in interface body");
         }
     }
     
     @Override
     public void visit(Tree.Return that) {
-        if (!canReturn) {
+        if (!state.get(CAN_RETURN)) {
             that.addError("nothing to return from");
         }
         super.visit(that);
@@ -363,7 +380,7 @@ public class ControlFlowVisitor extends Visitor {
     }
 
     private void checkReachable(Tree.Statement that) {
-        if (definitelyReturns || definitelyBreaksOrContinues) {
+        if (state.get(DEFINITELY_RETURNS) || state.get(DEFINITELY_BREAKS_OR_CONTINUES)) {
             that.addError("unreachable code");
         }
     }
@@ -373,18 +390,18 @@ public class ControlFlowVisitor extends Visitor {
         checkExecutableStatementAllowed(that);
         checkReachable(that);
         boolean d = beginIndefiniteReturnScope();
-        Boolean b = beginLoop();
+        int b = beginLoop();
         boolean bc = beginLoopScope();
         that.getWhileClause().visit(this);
-        boolean definitelyDoesNotBreakFromWhile = !possiblyBreaks;
-        boolean definitelyReturnsFromWhile = definitelyReturns;
+        boolean definitelyDoesNotBreakFromWhile = !state.get(POSSIBLY_BREAKS);
+        boolean definitelyReturnsFromWhile = state.get(DEFINITELY_RETURNS);
         endDefiniteReturnScope(d);
         endLoop(b);
         endLoopScope(bc);
         if (isAlwaysSatisfied(that.getWhileClause().getConditionList())) {
         	if (definitelyDoesNotBreakFromWhile 
         			|| definitelyReturnsFromWhile) { //superfluous?
-        		definitelyReturns = true;
+        		state.set(DEFINITELY_RETURNS);
         	}
         }
     }
@@ -395,7 +412,7 @@ public class ControlFlowVisitor extends Visitor {
         checkReachable(that);
         boolean d = beginIndefiniteReturnScope();
         
-        Boolean b = beginLoop();
+        int b = beginLoop();
         boolean bc = beginLoopScope();
         boolean atLeastOneIteration = false;
         Tree.ForClause forClause = that.getForClause();
@@ -403,20 +420,20 @@ public class ControlFlowVisitor extends Visitor {
             forClause.visit(this);
             atLeastOneIteration = isAtLeastOne(forClause);
         }
-        boolean definitelyDoesNotBreakFromFor = !possiblyBreaks;
-        boolean definitelyReturnsFromFor = definitelyReturns && 
+        boolean definitelyDoesNotBreakFromFor = !state.get(POSSIBLY_BREAKS);
+        boolean definitelyReturnsFromFor = state.get(DEFINITELY_RETURNS) && 
         		atLeastOneIteration && definitelyDoesNotBreakFromFor;
-        that.setExits(possiblyBreaks);
+        that.setExits(state.get(POSSIBLY_BREAKS));
         endLoop(b);
         endLoopScope(bc);
         
-        definitelyReturns = d || definitelyReturnsFromFor;
+        state.set(DEFINITELY_RETURNS, d || definitelyReturnsFromFor);
         
         boolean definitelyReturnsFromElse;
         Tree.ElseClause elseClause = that.getElseClause();
         if (elseClause!=null) {
             elseClause.visit(this);
-            definitelyReturnsFromElse = definitelyReturns && 
+            definitelyReturnsFromElse = state.get(DEFINITELY_RETURNS) && 
             		definitelyDoesNotBreakFromFor;
         }
         else {
@@ -424,62 +441,58 @@ public class ControlFlowVisitor extends Visitor {
         }
         endLoopScope(bc);
         
-        definitelyReturns = d || 
+        state.set(DEFINITELY_RETURNS, d || 
         		definitelyReturnsFromFor || 
-        		definitelyReturnsFromElse;
+        		definitelyReturnsFromElse);
     }
 
     @Override
     public void visit(Tree.IfStatement that) {
         checkExecutableStatementAllowed(that);
         checkReachable(that);
-        boolean d = beginIndefiniteReturnScope();
-        Boolean e = possiblyBreaks;
-        boolean bc = definitelyBreaksOrContinues;
+        FlowState before = state.copy();
         
         Tree.IfClause ifClause = that.getIfClause();
         if (ifClause!=null) {
             ifClause.visit(this);
         }
-        boolean definitelyReturnsFromIf = definitelyReturns;
-        Boolean possiblyBreaksFromIf = possiblyBreaks;
-        boolean breaksOrContinuesFromIf = definitelyBreaksOrContinues;
-        possiblyBreaks = e;
-        endDefiniteReturnScope(d);
-        endLoopScope(bc);
+        FlowState fromIf = state.copy();
+        state.copyFrom(before);
         
-        boolean definitelyReturnsFromElse;
-        boolean breaksOrContinuesFromElse;
+        FlowState fromElse;
         Tree.ElseClause elseClause = that.getElseClause();
         if (elseClause!=null) {
             elseClause.visit(this);
-            definitelyReturnsFromElse = definitelyReturns;
-            breaksOrContinuesFromElse = definitelyBreaksOrContinues;
+            fromElse = state.copy();
+            state.copyFrom(before);
         }
         else {
-            definitelyReturnsFromElse = false;
-            breaksOrContinuesFromElse = false;
+            fromElse = before;
         }
-        Boolean possiblyBreaksFromElse = possiblyBreaks;
-        possiblyBreaks = e;
-        endLoopScope(bc);
         
         Tree.ConditionList cl = ifClause==null ? null : ifClause.getConditionList();
         if (isAlwaysSatisfied(cl)) {
-            definitelyReturns = d || definitelyReturnsFromIf;
-            possiblyBreaks = possiblyBreaksFromIf;
-            definitelyBreaksOrContinues = bc || breaksOrContinuesFromIf;
+            state.copyFrom(fromIf);
         } 
         else if (isNeverSatisfied(cl)) {
-            definitelyReturns = d || definitelyReturnsFromElse;
-            possiblyBreaks = possiblyBreaksFromElse;
-            definitelyBreaksOrContinues = bc || breaksOrContinuesFromElse;
+            state.copyFrom(fromElse);
         }
         else {
-            definitelyReturns = d || (definitelyReturnsFromIf && definitelyReturnsFromElse);
-            possiblyBreaks = e==null ? null : possiblyBreaksFromIf || possiblyBreaksFromElse;
-            definitelyBreaksOrContinues = bc || breaksOrContinuesFromIf && breaksOrContinuesFromElse;
-
+            //returns or breaks or continues if both 
+            //branches do, and possibly breaks from the
+            //loop we are in if either branch does
+            FlowState breaks = fromIf.copy();
+            breaks.or(fromElse);
+            state.copyFrom(fromIf);
+            state.and(fromElse);
+            if (before.get(IN_LOOP)) {
+                state.set(IN_LOOP);
+                state.set(POSSIBLY_BREAKS, 
+                        breaks.get(POSSIBLY_BREAKS));
+            }
+            else {
+                state.andNot(LOOP);
+            }
         }
     }
 
@@ -488,7 +501,7 @@ public class ControlFlowVisitor extends Visitor {
         checkExecutableStatementAllowed(that);
         checkReachable(that);
         boolean d = beginIndefiniteReturnScope();
-        boolean bc = definitelyBreaksOrContinues;
+        boolean bc = state.get(DEFINITELY_BREAKS_OR_CONTINUES);
         
         that.getSwitchClause().visit(this);
         
@@ -498,9 +511,9 @@ public class ControlFlowVisitor extends Visitor {
                 that.getSwitchCaseList().getCaseClauses();
         for (Tree.CaseClause cc: caseClauses) {
             cc.visit(this);
-            definitelyReturnsFromEveryCase = definitelyReturnsFromEveryCase && definitelyReturns;
+            definitelyReturnsFromEveryCase = definitelyReturnsFromEveryCase && state.get(DEFINITELY_RETURNS);
             definitelyBreaksOrContinuesFromEveryCase = definitelyBreaksOrContinuesFromEveryCase 
-            		&& definitelyBreaksOrContinues;
+            		&& state.get(DEFINITELY_BREAKS_OR_CONTINUES);
             endDefiniteReturnScope(d);
             endLoopScope(bc);
         }
@@ -509,15 +522,15 @@ public class ControlFlowVisitor extends Visitor {
                 that.getSwitchCaseList().getElseClause();
         if (elseClause!=null) {
             elseClause.visit(this);
-            definitelyReturnsFromEveryCase = definitelyReturnsFromEveryCase && definitelyReturns;
+            definitelyReturnsFromEveryCase = definitelyReturnsFromEveryCase && state.get(DEFINITELY_RETURNS);
             definitelyBreaksOrContinuesFromEveryCase = definitelyBreaksOrContinuesFromEveryCase 
-            		&& definitelyBreaksOrContinues;
+            		&& state.get(DEFINITELY_BREAKS_OR_CONTINUES);
             endDefiniteReturnScope(d);
             endLoopScope(bc);
         }
         
-        definitelyReturns = d || definitelyReturnsFromEveryCase;
-        definitelyBreaksOrContinues = bc || definitelyBreaksOrContinuesFromEveryCase;
+        state.set(DEFINITELY_RETURNS, d || definitelyReturnsFromEveryCase);
+        state.set(DEFINITELY_BREAKS_OR_CONTINUES, bc || definitelyBreaksOrContinuesFromEveryCase);
     }
 
     @Override
@@ -525,14 +538,14 @@ public class ControlFlowVisitor extends Visitor {
         checkExecutableStatementAllowed(that);
         checkReachable(that);
         boolean d = beginIndefiniteReturnScope();
-        boolean bc = definitelyBreaksOrContinues;
+        boolean bc = state.get(DEFINITELY_BREAKS_OR_CONTINUES);
         
         Tree.TryClause tryClause = that.getTryClause();
         if (tryClause!=null) {
             tryClause.visit(this);
         }
-        boolean definitelyReturnsFromTry = definitelyReturns;
-        boolean definitelyBreaksOrContinuesFromTry = definitelyBreaksOrContinues;
+        boolean definitelyReturnsFromTry = state.get(DEFINITELY_RETURNS);
+        boolean definitelyBreaksOrContinuesFromTry = state.get(DEFINITELY_BREAKS_OR_CONTINUES);
         endDefiniteReturnScope(d);
         endLoopScope(bc);
         
@@ -540,9 +553,9 @@ public class ControlFlowVisitor extends Visitor {
         boolean definitelyBreaksOrContinuesFromEveryCatch = true;
         for (Tree.CatchClause cc: that.getCatchClauses()) {
             cc.visit(this);
-            definitelyReturnsFromEveryCatch = definitelyReturnsFromEveryCatch && definitelyReturns;
+            definitelyReturnsFromEveryCatch = definitelyReturnsFromEveryCatch && state.get(DEFINITELY_RETURNS);
             definitelyBreaksOrContinuesFromEveryCatch = definitelyBreaksOrContinuesFromEveryCatch 
-            		&& definitelyBreaksOrContinues;
+            		&& state.get(DEFINITELY_BREAKS_OR_CONTINUES);
             endDefiniteReturnScope(d);
             endLoopScope(bc);
         }
@@ -552,18 +565,18 @@ public class ControlFlowVisitor extends Visitor {
         Tree.FinallyClause finallyClause = that.getFinallyClause();
         if (finallyClause!=null) {
             finallyClause.visit(this);
-            definitelyReturnsFromFinally = definitelyReturns;
-            definitelyBreaksOrContinuesFromFinally = definitelyBreaksOrContinues;
+            definitelyReturnsFromFinally = state.get(DEFINITELY_RETURNS);
+            definitelyBreaksOrContinuesFromFinally = state.get(DEFINITELY_BREAKS_OR_CONTINUES);
         }
         else {
             definitelyReturnsFromFinally = false;
             definitelyBreaksOrContinuesFromFinally = false;
         }
         
-        definitelyReturns = d || (definitelyReturnsFromTry && definitelyReturnsFromEveryCatch) 
-                || definitelyReturnsFromFinally;
-        definitelyBreaksOrContinues = bc || (definitelyBreaksOrContinuesFromTry && definitelyBreaksOrContinuesFromEveryCatch
-        		|| definitelyBreaksOrContinuesFromFinally);
+        state.set(DEFINITELY_RETURNS, d || (definitelyReturnsFromTry && definitelyReturnsFromEveryCatch) 
+                || definitelyReturnsFromFinally);
+        state.set(DEFINITELY_BREAKS_OR_CONTINUES, bc || (definitelyBreaksOrContinuesFromTry && definitelyBreaksOrContinuesFromEveryCatch
+        		|| definitelyBreaksOrContinuesFromFinally));
     }
     
     @Override
@@ -591,7 +604,7 @@ public class ControlFlowVisitor extends Visitor {
     public void visit(Tree.Assertion that) {
         super.visit(that);
         if (isNeverSatisfied(that.getConditionList())) {
-            definitelyReturns = true;
+            state.set(DEFINITELY_RETURNS);
         }
     }
     
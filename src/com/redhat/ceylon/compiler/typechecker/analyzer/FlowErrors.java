@@ -0,0 +1,132 @@
+package com.redhat.ceylon.compiler.typechecker.analyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.tree.Message;
+import com.redhat.ceylon.compiler.typechecker.tree.Node;
+
+/**
+ * The errors found by a {@link SpecificationVisitor} and
+ * a {@link SelfReferenceVisitor} which check all the
+ * declarations of a compilation unit in one walk of its
+ * tree. The declarations are numbered in the order of
+ * the given list, and each visitor tracks them using
+ * these numbers as the indexes of the facts of its
+ * {@link FlowState}s.
+ *
+ * The errors are not added to the tree until the end
+ * of the walks, when {@link #report()} adds them in
+ * the order a walk for each declaration in turn would
+ * have found them. If either walk caused an exception,
+ * no errors are added, and the declarations must be
+ * checked again one at a time.
+ */
+public class FlowErrors {
+
+    static final int SPECIFICATION = 0;
+    static final int SELF_REFERENCE = 1;
+
+    private final List<Declaration> declarations;
+    private final Map<Declaration,Integer> indexes =
+            new IdentityHashMap<Declaration,Integer>();
+    private final List<FlowError> errors =
+            new ArrayList<FlowError>();
+    private boolean failed;
+
+    private static final class FlowError {
+        final Node node;
+        final Message message;
+        final int order;
+        FlowError(Node node, Message message, int order) {
+            this.node = node;
+            this.message = message;
+            this.order = order;
+        }
+    }
+
+    public FlowErrors(List<Declaration> declarations) {
+        this.declarations = declarations;
+        for (int i=0; i<declarations.size(); i++) {
+            indexes.put(declarations.get(i), i);
+        }
+        //a declaration listed twice would have been
+        //checked twice
+        failed = indexes.size()<declarations.size();
+    }
+
+    List<Declaration> getDeclarations() {
+        return declarations;
+    }
+
+    /**
+     * The number of the given declaration, or -1 if it
+     * is not a declaration of the compilation unit.
+     */
+    int indexOf(Declaration declaration) {
+        Integer index = indexes.get(declaration);
+        return index==null ? -1 : index;
+    }
+
+    void addError(Node node, String message,
+            int declaration, int check) {
+        add(node, new AnalysisError(node, message),
+                declaration, check);
+    }
+
+    void addError(Node node, String message, int code,
+            int declaration, int check) {
+        add(node, new AnalysisError(node, message, code),
+                declaration, check);
+    }
+
+    private void add(Node node, Message message,
+            int declaration, int check) {
+        if (!failed) {
+            errors.add(new FlowError(node, message,
+                    declaration*2+check));
+        }
+    }
+
+    /**
+     * Discard the errors, because a walk was interrupted
+     * by an exception.
+     */
+    void fail() {
+        failed = true;
+        errors.clear();
+    }
+
+    /**
+     * Add the errors to the nodes of the tree, ordered by
+     * declaration, and then by visitor, and then in the
+     * order they were found.
+     *
+     * @return false if the declarations must be checked
+     *         again one at a time
+     */
+    public boolean report() {
+        if (failed) {
+            return false;
+        }
+        //a stable sort
+        Collections.sort(errors, new Comparator<FlowError>() {
+            @Override
+            public int compare(FlowError x, FlowError y) {
+                return x.order<y.order ? -1 :
+                    (x.order==y.order ? 0 : 1);
+            }
+        });
+        for (FlowError error: errors) {
+            error.node.addError(error.message);
+        }
+        errors.clear();
+        return true;
+    }
+
+}
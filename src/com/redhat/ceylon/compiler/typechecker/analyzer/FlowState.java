@@ -0,0 +1,211 @@
+package com.redhat.ceylon.compiler.typechecker.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * The state of a flow analysis at some point of a walk of
+ * the tree: a fixed number of facts, each either known or
+ * not known, packed into the bits of an array of longs.
+ * A visitor assigns the indexes of the facts it tracks,
+ * for example, one fact for each declaration it checks,
+ * so that one state holds, say, whether each declaration
+ * is definitely specified.
+ *
+ * At the end of a conditional, the states of its branches
+ * are joined using {@link #and(FlowState)}, for a fact
+ * that must hold on every branch, such as "definitely
+ * specified", or {@link #or(FlowState)}, for a fact that
+ * may hold on some branch, such as "possibly specified",
+ * for every declaration at once.
+ *
+ * None of the operations on existing states allocate, so
+ * a visitor can save and restore its state on entering
+ * and leaving each nested scope using a {@link Stack}.
+ */
+final class FlowState {
+
+    private final long[] bits;
+    private final int size;
+
+    /**
+     * A state in which none of the given number of facts
+     * is known.
+     */
+    FlowState(int size) {
+        this.size = size;
+        bits = new long[(size+63)>>>6];
+    }
+
+    boolean get(int fact) {
+        return (bits[fact>>>6] & 1L<<fact)!=0;
+    }
+
+    void set(int fact) {
+        bits[fact>>>6] |= 1L<<fact;
+    }
+
+    void clear(int fact) {
+        bits[fact>>>6] &= ~(1L<<fact);
+    }
+
+    void set(int fact, boolean known) {
+        if (known) {
+            set(fact);
+        }
+        else {
+            clear(fact);
+        }
+    }
+
+    /**
+     * Learn every fact.
+     */
+    void set() {
+        Arrays.fill(bits, -1L);
+        if ((size & 63)!=0) {
+            bits[bits.length-1] = (1L<<size)-1;
+        }
+    }
+
+    /**
+     * Forget every fact.
+     */
+    void clear() {
+        Arrays.fill(bits, 0L);
+    }
+
+    /**
+     * The index of the first fact known in this state at
+     * or after the given index, or -1 if there is none.
+     */
+    int next(int fact) {
+        int i = fact>>>6;
+        if (i>=bits.length) {
+            return -1;
+        }
+        long word = bits[i] & -1L<<fact;
+        while (word==0) {
+            if (++i==bits.length) {
+                return -1;
+            }
+            word = bits[i];
+        }
+        return i<<6 | Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Replace this state with the given state, which must
+     * have the same number of facts.
+     */
+    void copyFrom(FlowState that) {
+        System.arraycopy(that.bits, 0, bits, 0, bits.length);
+    }
+
+    /**
+     * Replace the facts which are known in the given mask
+     * with the facts of the given state.
+     */
+    void copyFrom(FlowState that, FlowState mask) {
+        for (int i=0; i<bits.length; i++) {
+            bits[i] = bits[i] & ~mask.bits[i] |
+                    that.bits[i] & mask.bits[i];
+        }
+    }
+
+    FlowState copy() {
+        FlowState result = new FlowState(size);
+        result.copyFrom(this);
+        return result;
+    }
+
+    /**
+     * Forget the facts which are not known in the given
+     * state.
+     */
+    void and(FlowState that) {
+        for (int i=0; i<bits.length; i++) {
+            bits[i] &= that.bits[i];
+        }
+    }
+
+    /**
+     * Learn the facts which are known in the given state.
+     */
+    void or(FlowState that) {
+        for (int i=0; i<bits.length; i++) {
+            bits[i] |= that.bits[i];
+        }
+    }
+
+    /**
+     * Forget the facts which are known in the given state.
+     */
+    void andNot(FlowState that) {
+        for (int i=0; i<bits.length; i++) {
+            bits[i] &= ~that.bits[i];
+        }
+    }
+
+    /**
+     * The saved states of the scopes enclosing the current
+     * point of a walk. The states are reused as the walk
+     * enters and leaves scopes, so the stack allocates
+     * only when it grows deeper than it has been before.
+     */
+    static final class Stack {
+
+        private final int size;
+        private FlowState[] states = new FlowState[8];
+        private int depth = 0;
+
+        /**
+         * A stack of states of the given number of facts.
+         */
+        Stack(int size) {
+            this.size = size;
+        }
+
+        /**
+         * Save a copy of the given state.
+         *
+         * @return the depth of the stack before the state
+         *         was saved, to be passed to {@link #pop}
+         */
+        int push(FlowState state) {
+            if (depth==states.length) {
+                states = Arrays.copyOf(states, depth*2);
+            }
+            FlowState saved = states[depth];
+            if (saved==null) {
+                saved = new FlowState(size);
+                states[depth] = saved;
+            }
+            saved.copyFrom(state);
+            return depth++;
+        }
+
+        /**
+         * Restore the state saved by the {@link #push} that
+         * returned the given depth into the given state, and
+         * discard it, along with any state saved after it,
+         * for example, by a scope left by an exception.
+         */
+        void pop(int depth, FlowState state) {
+            state.copyFrom(states[depth]);
+            this.depth = depth;
+        }
+
+        /**
+         * Restore just the facts which are known in the
+         * given mask.
+         *
+         * @see #pop(int, FlowState)
+         */
+        void pop(int depth, FlowState state, FlowState mask) {
+            state.copyFrom(states[depth], mask);
+            this.depth = depth;
+        }
+
+    }
+
+}
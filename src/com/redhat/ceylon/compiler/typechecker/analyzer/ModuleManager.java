@@ -428,6 +428,11 @@ public class ModuleManager {
     }
 
     public void modulesVisited() {
-        // to be overridden by subclasses
+        // may be overridden by subclasses, which should
+        // call super to resolve the language declarations
+        Module languageModule = context.getModules().getLanguageModule();
+        if (languageModule!=null && languageModule.isAvailable()) {
+            languageModule.resolveLanguagePackage();
+        }
     }
 }
@@ -3,6 +3,10 @@ package com.redhat.ceylon.compiler.typechecker.analyzer;
 import static com.redhat.ceylon.compiler.typechecker.analyzer.Util.eliminateParensAndWidening;
 import static com.redhat.ceylon.compiler.typechecker.analyzer.Util.getLastExecutableStatement;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import com.redhat.ceylon.compiler.typechecker.model.Declaration;
 import com.redhat.ceylon.compiler.typechecker.model.MethodOrValue;
 import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
@@ -16,51 +20,161 @@ import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
  * Validates that the initializer of a class does
  * not leak self-references to the instance being
  * initialized.
- * 
+ *
+ * Checks every type declaration of a compilation unit
+ * in a single walk of its tree, or a single type
+ * declaration.
+ *
  * @author Gavin King
  *
  */
 public class SelfReferenceVisitor extends Visitor {
-    
-    private final TypeDeclaration typeDeclaration;
-    private Tree.Statement lastExecutableStatement;
-    private boolean declarationSection = false;
-    private int nestedLevel = -1;
+
+    private final List<Declaration> declarations;
+    //null if we are checking a single type declaration,
+    //and add the errors directly to the tree
+    private final FlowErrors errors;
+    //the indexes of the type declarations
+    private final int[] types;
+
+    //the state of each type declaration
+    private final Tree.Statement[] lastExecutableStatement;
+    private final FlowState declarationSection;
+    private final int[] nestedLevel;
+    //the type declarations whose body we are in, that
+    //is, whose nested level is not negative
+    private int[] bodies = new int[4];
+    private int bodyCount = 0;
+    //the type declarations whose errors are being
+    //discarded
+    private final FlowState excluded;
+
     private boolean defaultArgument;
 
     public SelfReferenceVisitor(TypeDeclaration td) {
-        typeDeclaration = td;
+        this(Collections.<Declaration>singletonList(td), null);
+    }
+
+    /**
+     * Check every type declaration of the compilation
+     * unit, leaving the errors in the given
+     * {@link FlowErrors}.
+     */
+    public SelfReferenceVisitor(FlowErrors errors) {
+        this(errors.getDeclarations(), errors);
+    }
+
+    private SelfReferenceVisitor(List<Declaration> declarations,
+            FlowErrors errors) {
+        this.declarations = declarations;
+        this.errors = errors;
+        int count = declarations.size();
+        int[] types = new int[count];
+        int typeCount = 0;
+        for (int i=0; i<count; i++) {
+            if (declarations.get(i) instanceof TypeDeclaration) {
+                types[typeCount++] = i;
+            }
+        }
+        this.types = Arrays.copyOf(types, typeCount);
+        lastExecutableStatement = new Tree.Statement[count];
+        declarationSection = new FlowState(count);
+        nestedLevel = new int[count];
+        Arrays.fill(nestedLevel, -1);
+        excluded = new FlowState(count);
+    }
+
+    /**
+     * The index of the given type declaration, or -1 if
+     * it is not one of the type declarations we are
+     * checking.
+     */
+    private int indexOf(Declaration declaration) {
+        int index;
+        if (errors==null) {
+            index = declaration==declarations.get(0) ? 0 : -1;
+        }
+        else {
+            index = errors.indexOf(declaration);
+        }
+        return index>=0 &&
+                declarations.get(index) instanceof TypeDeclaration ?
+                        index : -1;
+    }
+
+    private TypeDeclaration typeDeclaration(int index) {
+        return (TypeDeclaration) declarations.get(index);
+    }
+
+    private boolean isChecked(int index) {
+        return errors==null || !excluded.get(index);
+    }
+
+    private void addError(Node node, String message, int index) {
+        if (errors==null) {
+            node.addError(message);
+        }
+        else if (!excluded.get(index)) {
+            errors.addError(node, message, index,
+                    FlowErrors.SELF_REFERENCE);
+        }
+    }
+
+    @Override
+    public void handleException(Exception e, Node that) {
+        if (errors==null) {
+            super.handleException(e, that);
+        }
+        else {
+            //the declarations will be checked again, one
+            //at a time, to report the exception
+            errors.fail();
+        }
     }
-    
+
+    /**
+     * The type declaration which inherits the given member
+     * at the given node, if it is one of the type
+     * declarations we are checking, and the node is not in
+     * its declaration section, or -1.
+     */
+    private int inheritingDeclaration(Tree.Primary that, Declaration member) {
+        if (errors==null && declarationSection.get(0)) {
+            return -1;
+        }
+        int index = indexOf(that.getScope().getInheritingDeclaration(member));
+        return index>=0 && !declarationSection.get(index) ? index : -1;
+    }
+
     private void visitExtendedType(Tree.ExtendedTypeExpression that) {
         Declaration member = that.getDeclaration();
-        if (member!=null && !typeDeclaration.isAlias()) {
-            if ( !declarationSection && isInherited(that, member) ) {
-                that.addError("inherited member class may not be extended in initializer of '" +
-                    		typeDeclaration.getName() + "': '" + member.getName() + 
-                    		"' is inherited from '" + 
-                    		((Declaration) member.getContainer()).getName() + "'");
+        if (member!=null &&
+                (errors!=null || !typeDeclaration(0).isAlias())) {
+            int index = inheritingDeclaration(that, member);
+            if (index>=0 && !typeDeclaration(index).isAlias()) {
+                addError(that, "inherited member class may not be extended in initializer of '" +
+                    		typeDeclaration(index).getName() + "': '" + member.getName() +
+                    		"' is inherited from '" +
+                    		((Declaration) member.getContainer()).getName() + "'", index);
             }
         }
     }
 
-    private void visitReference(Tree.Primary that) {
+    private void visitReference(Tree.Primary that, Tree.Term primary) {
         if (that instanceof Tree.MemberOrTypeExpression) {
             Declaration member = ((Tree.MemberOrTypeExpression) that).getDeclaration();
             if (member!=null) {
-                if (!declarationSection && isInherited(that, member)) {
-                    that.addError("inherited member may not be used in initializer of '" +
-                    		typeDeclaration.getName() + "': '" + member.getName() + 
-                    		"' is inherited from '" + 
-                    		((Declaration) member.getContainer()).getName() + "'");
+                int index = inheritingDeclaration(that, member);
+                if (index>=0 &&
+                        (primary==null || isSelfReference(index, primary))) {
+                    addError(that, "inherited member may not be used in initializer of '" +
+                    		typeDeclaration(index).getName() + "': '" + member.getName() +
+                    		"' is inherited from '" +
+                    		((Declaration) member.getContainer()).getName() + "'", index);
                 }
             }
         }
     }
-    
-    private boolean isInherited(Tree.Primary that, Declaration member) {
-        return that.getScope().getInheritingDeclaration(member)==typeDeclaration;
-    }
 
     @Override
     public void visit(Tree.AnnotationList that) {}
@@ -74,211 +188,284 @@ public class SelfReferenceVisitor extends Visitor {
     @Override
     public void visit(Tree.BaseMemberExpression that) {
         super.visit(that);
-        visitReference(that);
+        visitReference(that, null);
     }
 
     @Override
     public void visit(Tree.BaseTypeExpression that) {
         super.visit(that);
-        visitReference(that);
+        visitReference(that, null);
     }
 
     @Override
     public void visit(Tree.QualifiedMemberExpression that) {
         super.visit(that);
-        if (isSelfReference(that.getPrimary())) {
-            visitReference(that);
-        }
+        visitQualifiedReference(that, that.getPrimary());
     }
 
     @Override
     public void visit(Tree.QualifiedTypeExpression that) {
         super.visit(that);
-        if (isSelfReference(that.getPrimary())) {
-            visitReference(that);
+        visitQualifiedReference(that, that.getPrimary());
+    }
+
+    private void visitQualifiedReference(Tree.Primary that,
+            Tree.Primary primary) {
+        if (errors==null ?
+                isSelfReference(0, primary) :
+                primary instanceof Tree.This ||
+                primary instanceof Tree.Super ||
+                primary instanceof Tree.Outer) {
+            visitReference(that, primary);
         }
     }
 
-    private boolean isSelfReference(Tree.Term that) {
-        return (directlyInBody() && (that instanceof Tree.This || that instanceof Tree.Super))
-            || (directlyInNestedBody() && that instanceof Tree.Outer);
+    private boolean isSelfReference(int index, Tree.Term that) {
+        return (directlyInBody(index) && (that instanceof Tree.This || that instanceof Tree.Super))
+            || (directlyInNestedBody(index) && that instanceof Tree.Outer);
     }
 
     @Override
     public void visit(Tree.IsCondition that) {
         super.visit(that);
-        if ( inBody() ) {
-            Tree.Variable v = that.getVariable();
-            if (v!=null && v.getSpecifierExpression()!=null) {
-                Tree.Term term = v.getSpecifierExpression()
-                        .getExpression().getTerm();
-                if (directlyInBody() && term instanceof Tree.Super) {
-                    term.addError("narrows super");
-                }
-                else if (mayNotLeakThis() && term instanceof Tree.This) {
-                    term.addError("narrows this in initializer: '" + 
-                            typeDeclaration.getName() + "'");
-                }
-                else if (mayNotLeakOuter() && term instanceof Tree.Outer) {
-                    term.addError("narrows outer in initializer: '" + 
-                            typeDeclaration.getName() + "'");
-                }
+        for (int i=0; i<bodyCount; i++) {
+            int index = bodies[i];
+            if (isChecked(index)) {
+                visitIsCondition(that, index);
             }
         }
     }
-    
-    @Override
-    public void visit(Tree.ObjectDefinition that) {
-        if (that.getAnonymousClass()==typeDeclaration) {
-            nestedLevel=0;
-            super.visit(that);
-            nestedLevel=-1;
+
+    private void visitIsCondition(Tree.IsCondition that, int index) {
+        Tree.Variable v = that.getVariable();
+        if (v!=null && v.getSpecifierExpression()!=null) {
+            Tree.Term term = v.getSpecifierExpression()
+                    .getExpression().getTerm();
+            if (directlyInBody(index) && term instanceof Tree.Super) {
+                addError(term, "narrows super", index);
+            }
+            else if (mayNotLeakThis(index) && term instanceof Tree.This) {
+                addError(term, "narrows this in initializer: '" +
+                        typeDeclaration(index).getName() + "'", index);
+            }
+            else if (mayNotLeakOuter(index) && term instanceof Tree.Outer) {
+                addError(term, "narrows outer in initializer: '" +
+                        typeDeclaration(index).getName() + "'", index);
+            }
         }
-        else if (inBody()){
-            nestedLevel++;
-            super.visit(that);
-            nestedLevel--;
+    }
+
+    /**
+     * Enter the body of the given type declaration, if it
+     * is one we are checking, and nest the bodies of the
+     * other type declarations we are in one level deeper.
+     *
+     * @return the type declarations whose bodies are
+     *         nested
+     */
+    private int[] beginBody(int index) {
+        int[] nested = new int[bodyCount];
+        int count = 0;
+        for (int i=0; i<bodyCount; i++) {
+            int body = bodies[i];
+            if (body!=index) {
+                nestedLevel[body]++;
+                nested[count++] = body;
+            }
         }
-        else {
-            super.visit(that);
+        if (index>=0) {
+            if (nestedLevel[index]<0) {
+                if (bodyCount==bodies.length) {
+                    bodies = Arrays.copyOf(bodies, bodyCount*2);
+                }
+                bodies[bodyCount++] = index;
+            }
+            nestedLevel[index] = 0;
         }
+        return count==nested.length ?
+                nested : Arrays.copyOf(nested, count);
     }
-    
-    @Override
-    public void visit(Tree.ObjectArgument that) {
-        if (that.getAnonymousClass()==typeDeclaration) {
-            nestedLevel=0;
-            super.visit(that);
-            nestedLevel=-1;
-        }
-        else if (inBody()){
-            nestedLevel++;
-            super.visit(that);
-            nestedLevel--;
+
+    private void endBody(int index, int[] nested) {
+        if (index>=0) {
+            nestedLevel[index] = -1;
+            removeBody(index);
+        }
+        for (int body: nested) {
+            if (--nestedLevel[body]<0) {
+                removeBody(body);
+            }
         }
-        else {
-            super.visit(that);
+    }
+
+    private void removeBody(int index) {
+        for (int i=0; i<bodyCount; i++) {
+            if (bodies[i]==index) {
+                System.arraycopy(bodies, i+1, bodies, i,
+                        bodyCount-i-1);
+                bodyCount--;
+                return;
+            }
         }
     }
-    
+
+    @Override
+    public void visit(Tree.ObjectDefinition that) {
+        int index = indexOf(that.getAnonymousClass());
+        int[] nested = beginBody(index);
+        super.visit(that);
+        endBody(index, nested);
+    }
+
+    @Override
+    public void visit(Tree.ObjectArgument that) {
+        int index = indexOf(that.getAnonymousClass());
+        int[] nested = beginBody(index);
+        super.visit(that);
+        endBody(index, nested);
+    }
+
     @Override
     public void visit(Tree.TypeDeclaration that) {
-        if (that.getDeclarationModel()==typeDeclaration) {
-            nestedLevel=0;
-            declarationSection = false;
-            super.visit(that);
-            nestedLevel=-1;
-        }
-        else if (inBody()){
-            nestedLevel++;
-            super.visit(that);
-            nestedLevel--;
+        int index = indexOf(that.getDeclarationModel());
+        int[] nested = beginBody(index);
+        if (index>=0) {
+            declarationSection.clear(index);
         }
-        else {
-            super.visit(that);
+        super.visit(that);
+        endBody(index, nested);
+    }
+
+    /**
+     * The type declarations directly in whose body we are.
+     */
+    private int[] directlyInBody() {
+        int[] result = new int[bodyCount];
+        int count = 0;
+        for (int i=0; i<bodyCount; i++) {
+            if (directlyInBody(bodies[i])) {
+                result[count++] = bodies[i];
+            }
         }
+        return Arrays.copyOf(result, count);
     }
-    
+
     @Override
     public void visit(Tree.InterfaceBody that) {
-        if (directlyInBody()) {
-            declarationSection = true;
-            lastExecutableStatement = null;
-            super.visit(that);
-            declarationSection = false;
+        int[] interfaces = directlyInBody();
+        for (int index: interfaces) {
+            declarationSection.set(index);
+            lastExecutableStatement[index] = null;
         }
-        else {
-            super.visit(that);
+        super.visit(that);
+        for (int index: interfaces) {
+            declarationSection.clear(index);
         }
     }
 
-    private boolean directlyInBody() {
-        return nestedLevel==0;
+    private boolean directlyInBody(int index) {
+        return nestedLevel[index]==0;
     }
-    
+
     @Override
     public void visit(Tree.ClassBody that) {
-        if (directlyInBody()) {
+        int[] classes = directlyInBody();
+        if (classes.length>0) {
             Tree.Statement les = getLastExecutableStatement(that);
-            declarationSection = les==null;
-            lastExecutableStatement = les;
+            for (int index: classes) {
+                declarationSection.set(index, les==null);
+                lastExecutableStatement[index] = les;
+            }
             super.visit(that);
-            lastExecutableStatement = null;
-            declarationSection = false;
+            for (int index: classes) {
+                lastExecutableStatement[index] = null;
+                declarationSection.clear(index);
+            }
         }
         else {
             super.visit(that);
         }
     }
 
-    boolean mayNotLeakThis() {
-        return !declarationSection && directlyInBody();
-    }
-    
-    boolean mayNotLeakOuter() {
-        return !declarationSection && directlyInNestedBody();
+    boolean mayNotLeakThis(int index) {
+        return !declarationSection.get(index) && directlyInBody(index);
     }
 
-    private boolean directlyInNestedBody() {
-        return nestedLevel==1;
+    boolean mayNotLeakOuter(int index) {
+        return !declarationSection.get(index) && directlyInNestedBody(index);
     }
-    
-    boolean inBody() {
-        return nestedLevel>=0;
+
+    private boolean directlyInNestedBody(int index) {
+        return nestedLevel[index]==1;
     }
-    
+
     @Override
     public void visit(Tree.Statement that) {
         super.visit(that);
-        if (inBody()) {
-            declarationSection = declarationSection || 
-                    that==lastExecutableStatement;
+        for (int i=0; i<bodyCount; i++) {
+            int index = bodies[i];
+            if (isChecked(index) &&
+                    that==lastExecutableStatement[index]) {
+                declarationSection.set(index);
+            }
         }
     }
-    
+
     private void checkSelfReference(Node that, Tree.Term term) {
-        Tree.Term t = eliminateParensAndWidening(term);
-        if (directlyInBody() && t instanceof Tree.Super) {
-            that.addError("leaks super reference in body: '" + 
-                    typeDeclaration.getName() + "'");
-        }    
-        if (mayNotLeakThis() && t instanceof Tree.This) {
-            that.addError("leaks this reference in initializer: '" + 
-                    typeDeclaration.getName() + "'");
-        }    
-        if (mayNotLeakOuter() && t instanceof Tree.Outer) {
-            that.addError("leaks outer reference in initializer: '" + 
-                    typeDeclaration.getName() + "'");
-        }
-        if (typeDeclaration.isAnonymous() && mayNotLeakAnonymousClass() && 
+        if (bodyCount>0) {
+            Tree.Term t = eliminateParensAndWidening(term);
+            for (int i=0; i<bodyCount; i++) {
+                int index = bodies[i];
+                if (isChecked(index)) {
+                    checkSelfReference(that, t, index);
+                }
+            }
+        }
+    }
+
+    private void checkSelfReference(Node that, Tree.Term t, int index) {
+        TypeDeclaration typeDeclaration = typeDeclaration(index);
+        if (directlyInBody(index) && t instanceof Tree.Super) {
+            addError(that, "leaks super reference in body: '" +
+                    typeDeclaration.getName() + "'", index);
+        }
+        if (mayNotLeakThis(index) && t instanceof Tree.This) {
+            addError(that, "leaks this reference in initializer: '" +
+                    typeDeclaration.getName() + "'", index);
+        }
+        if (mayNotLeakOuter(index) && t instanceof Tree.Outer) {
+            addError(that, "leaks outer reference in initializer: '" +
+                    typeDeclaration.getName() + "'", index);
+        }
+        if (typeDeclaration.isAnonymous() && mayNotLeakAnonymousClass(index) &&
         		t instanceof Tree.BaseMemberExpression) {
         	Declaration declaration = ((Tree.BaseMemberExpression)t).getDeclaration();
         	if (declaration instanceof TypedDeclaration) {
         		if (((TypedDeclaration) declaration).getTypeDeclaration()==typeDeclaration) {
-                    that.addError("object leaks self reference in initializer: '" + 
-                            typeDeclaration.getName() + "'");
+                    addError(that, "object leaks self reference in initializer: '" +
+                            typeDeclaration.getName() + "'", index);
         		}
         	}
         }
-        if (typeDeclaration.isAnonymous() && mayNotLeakAnonymousClass() && t 
+        if (typeDeclaration.isAnonymous() && mayNotLeakAnonymousClass(index) && t
         		instanceof Tree.QualifiedMemberExpression) {
         	Tree.QualifiedMemberExpression qme = (Tree.QualifiedMemberExpression) t;
         	if (qme.getPrimary() instanceof Tree.Outer) {
         		Declaration declaration = qme.getDeclaration();
         		if (declaration instanceof TypedDeclaration) {
         			if (((TypedDeclaration) declaration).getTypeDeclaration()==typeDeclaration) {
-        				that.addError("object leaks self reference in initializer: '" + 
-        						typeDeclaration.getName() + "'");
+        				addError(that, "object leaks self reference in initializer: '" +
+        						typeDeclaration.getName() + "'", index);
         			}
         		}
         	}
         }
     }
-    
-    boolean mayNotLeakAnonymousClass() {
-    	return !declarationSection && inBody();
+
+    boolean mayNotLeakAnonymousClass(int index) {
+    	return !declarationSection.get(index);
     }
-    
+
     @Override
     public void visit(Parameter that) {
         boolean oda = defaultArgument;
@@ -286,12 +473,19 @@ public class SelfReferenceVisitor extends Visitor {
         super.visit(that);
         defaultArgument = oda;
     }
-    
+
     @Override
     public void visit(Super that) {
         super.visit(that);
         if (defaultArgument) {
-            that.addError("reference to super from default argument expression");
+            //reported once for each type declaration, as
+            //if we had walked the tree for each of them
+            for (int index: types) {
+                if (isChecked(index)) {
+                    addError(that, "reference to super from default argument expression",
+                            index);
+                }
+            }
         }
     }
 
@@ -299,8 +493,8 @@ public class SelfReferenceVisitor extends Visitor {
     public void visit(Tree.Return that) {
         super.visit(that);
         Tree.Expression e = that.getExpression();
-        if ( e!=null && inBody() ) {
-            checkSelfReference(that, e.getTerm());    
+        if ( e!=null ) {
+            checkSelfReference(that, e.getTerm());
         }
     }
 
@@ -308,8 +502,8 @@ public class SelfReferenceVisitor extends Visitor {
     public void visit(Tree.Throw that) {
         super.visit(that);
         Tree.Expression e = that.getExpression();
-        if ( e!=null && inBody() ) {
-            checkSelfReference(that, e.getTerm());    
+        if ( e!=null ) {
+            checkSelfReference(that, e.getTerm());
         }
     }
 
@@ -317,47 +511,72 @@ public class SelfReferenceVisitor extends Visitor {
     public void visit(Tree.FunctionArgument that) {
         super.visit(that);
         Tree.Expression e = that.getExpression();
-        if ( e!=null && inBody() ) {
-            checkSelfReference(that, e.getTerm());    
+        if ( e!=null ) {
+            checkSelfReference(that, e.getTerm());
         }
     }
-    
+
     @Override
     public void visit(Tree.SpecifierOrInitializerExpression that) {
         super.visit(that);
         Tree.Expression e = that.getExpression();
-        if ( e!=null && inBody() ) {
-            checkSelfReference(that, e.getTerm());    
+        if ( e!=null ) {
+            checkSelfReference(that, e.getTerm());
         }
     }
-    
+
     @Override
     public void visit(Tree.SpecifierStatement that) {
-    	if ( inBody() ) {
+    	if ( bodyCount>0 && specifiesLateReferenceToThis(that) ) {
     		Tree.Term lt = that.getBaseMemberExpression();
-			Tree.SpecifierExpression se = that.getSpecifierExpression();
-    		if (lt instanceof Tree.MemberOrTypeExpression && se!=null) {
-    			Tree.Expression e = se.getExpression();
-    			if (e!=null) {
-    				if (e.getTerm() instanceof Tree.This) {
-    					Declaration d = ((Tree.MemberOrTypeExpression) lt).getDeclaration();
-    					if (d instanceof MethodOrValue) {
-    						if (((MethodOrValue) d).isLate()) {
-    							lt.visit(this);
-    							return; //NOTE: EARLY EXIT!!
-    						}
-    					}
-    				}
-    			}
+    		if (errors==null) {
+    		    lt.visit(this);
+    		    return; //NOTE: EARLY EXIT!!
+    		}
+    		//the type declarations whose body we are in
+    		//don't look any further than the specified
+    		//member, and the others walk the whole
+    		//statement
+    		FlowState inBody = new FlowState(declarations.size());
+    		for (int i=0; i<bodyCount; i++) {
+    		    inBody.set(bodies[i]);
     		}
+    		FlowState wasExcluded = excluded.copy();
+    		excluded.set();
+    		excluded.andNot(inBody);
+    		excluded.or(wasExcluded);
+    		lt.visit(this);
+    		excluded.copyFrom(wasExcluded);
+    		excluded.or(inBody);
+    		super.visit(that);
+    		excluded.copyFrom(wasExcluded);
     	}
-    	super.visit(that);
+    	else {
+    	    super.visit(that);
+    	}
+    }
+
+    private boolean specifiesLateReferenceToThis(Tree.SpecifierStatement that) {
+		Tree.Term lt = that.getBaseMemberExpression();
+		Tree.SpecifierExpression se = that.getSpecifierExpression();
+		if (lt instanceof Tree.MemberOrTypeExpression && se!=null) {
+			Tree.Expression e = se.getExpression();
+			if (e!=null) {
+				if (e.getTerm() instanceof Tree.This) {
+					Declaration d = ((Tree.MemberOrTypeExpression) lt).getDeclaration();
+					if (d instanceof MethodOrValue) {
+						return ((MethodOrValue) d).isLate();
+					}
+				}
+			}
+		}
+		return false;
     }
 
     @Override
     public void visit(Tree.AssignmentOp that) {
         super.visit(that);
-        if ( inBody() ) {
+        if ( bodyCount>0 ) {
         	Tree.Term lt = that.getLeftTerm();
 			if (lt instanceof Tree.MemberOrTypeExpression &&
 					that.getRightTerm() instanceof Tree.This) {
@@ -368,14 +587,14 @@ public class SelfReferenceVisitor extends Visitor {
         			}
         		}
         	}
-            checkSelfReference(that, that.getRightTerm());    
+            checkSelfReference(that, that.getRightTerm());
         }
     }
 
     @Override
     public void visit(Tree.BinaryOperatorExpression that) {
         super.visit(that);
-        if ( inBody() && !(that instanceof Tree.AssignmentOp) ) {
+        if ( !(that instanceof Tree.AssignmentOp) ) {
             checkSelfReference(that, that.getLeftTerm());
             checkSelfReference(that, that.getRightTerm());
         }
@@ -384,7 +603,7 @@ public class SelfReferenceVisitor extends Visitor {
     @Override
     public void visit(Tree.UnaryOperatorExpression that) {
         super.visit(that);
-        if ( inBody() && !(that instanceof Tree.OfOp) ) {
+        if ( !(that instanceof Tree.OfOp) ) {
             checkSelfReference(that, that.getTerm());
         }
     }
@@ -392,17 +611,15 @@ public class SelfReferenceVisitor extends Visitor {
     @Override
     public void visit(Tree.WithinOp that) {
         super.visit(that);
-        if ( inBody() ) {
-            checkSelfReference(that, that.getTerm());
-            checkSelfReference(that, that.getLowerBound());
-            checkSelfReference(that, that.getUpperBound());
-        }
+        checkSelfReference(that, that.getTerm());
+        checkSelfReference(that, that.getLowerBound());
+        checkSelfReference(that, that.getUpperBound());
     }
 
     @Override
     public void visit(Tree.ExpressionComprehensionClause that) {
         super.visit(that);
-        if ( inBody() ) {
+        if ( bodyCount>0 ) {
             Tree.Expression e = that.getExpression();
             if (e!=null) {
                 checkSelfReference(that, e.getTerm());
@@ -413,7 +630,7 @@ public class SelfReferenceVisitor extends Visitor {
     @Override
     public void visit(Tree.ListedArgument that) {
         super.visit(that);
-        if ( inBody() ) {
+        if ( bodyCount>0 ) {
             Tree.Expression e = that.getExpression();
             if (e!=null) {
                 checkSelfReference(that, e.getTerm());
@@ -424,18 +641,18 @@ public class SelfReferenceVisitor extends Visitor {
     @Override
     public void visit(Tree.SpreadArgument that) {
         super.visit(that);
-        if ( inBody() ) {
+        if ( bodyCount>0 ) {
             Tree.Expression e = that.getExpression();
             if (e!=null) {
             	checkSelfReference(that, e.getTerm());
             }
         }
     }
-    
+
     @Override
     public void visit(Tree.StringTemplate that) {
         super.visit(that);
-        if ( inBody() ) {
+        if ( bodyCount>0 ) {
             for (Tree.Expression e: that.getExpressions()) {
                 if (e!=null) {
                     checkSelfReference(e, e.getTerm());
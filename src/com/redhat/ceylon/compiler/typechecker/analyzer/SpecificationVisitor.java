@@ -5,6 +5,11 @@ import static com.redhat.ceylon.compiler.typechecker.analyzer.Util.isAlwaysSatis
 import static com.redhat.ceylon.compiler.typechecker.analyzer.Util.isAtLeastOne;
 import static com.redhat.ceylon.compiler.typechecker.analyzer.Util.isNeverSatisfied;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 import com.redhat.ceylon.compiler.typechecker.model.Class;
 import com.redhat.ceylon.compiler.typechecker.model.Declaration;
 import com.redhat.ceylon.compiler.typechecker.model.Method;
@@ -23,35 +28,62 @@ import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
  * that they are not used before they are defined, that
  * they are always specified before they are used, and
  * that they are never specified twice.
- * 
+ *
+ * Checks every declaration of a compilation unit in a
+ * single walk of its tree, tracking each declaration
+ * as one fact of each {@link FlowState}, or a single
+ * declaration.
+ *
  * @author Gavin King
  *
  */
 public class SpecificationVisitor extends Visitor {
-    
-    private final Declaration declaration;
-    
-    private SpecificationState specified = 
-            new SpecificationState(false, false);
-    private boolean withinDeclaration = true;
-    private boolean inLoop = false;
-    private boolean declared = false;
-    private boolean hasParameter = false;
-    private Tree.Statement lastExecutableStatement;
-    private boolean declarationSection = false;
+
+    private final List<Declaration> declarations;
+    //null if we are checking a single declaration, and
+    //add the errors directly to the tree
+    private final FlowErrors errors;
+    private final int count;
+
+    //the state of each declaration
+    private final FlowState definitely;
+    private final FlowState possibly;
+    private final FlowState exited;
+    private final FlowState byExits;
+    private final FlowState withinDeclaration;
+    private final FlowState inLoop;
+    private final FlowState declared;
+    private final FlowState hasParameter;
+    private final FlowState declarationSection;
+    private final FlowState inExtends;
+    private final FlowState inAnonFunctionOrComprehension;
+    private final FlowState withinAttributeInitializer;
+    private final FlowState[] states;
+    private final FlowState.Stack scopes;
+
+    //the declarations which may not be specified twice
+    //in a loop
+    private final FlowState constant;
+    //the declarations which must be definitely specified
+    //by the initializer of their class
+    private final FlowState shared;
+    //the declarations whose errors are being discarded
+    private final FlowState excluded;
+
+    //the declarations of each class body, by the last
+    //executable statement of the body
+    private final Map<Tree.Statement,FlowState> lastExecutableStatements =
+            new IdentityHashMap<Tree.Statement,FlowState>();
     private boolean endsInBreakReturnThrow = false;
-    private boolean inExtends = false;
-    private boolean inAnonFunctionOrComprehension = false;
-	private boolean withinAttributeInitializer = false;
-    
+
     @Override
     public void visit(Tree.ExtendedType that) {
-        boolean oie = inExtends;
-        inExtends = declared;
+        int oie = scopes.push(inExtends);
+        inExtends.copyFrom(declared);
         super.visit(that);
-        inExtends = oie;
+        scopes.pop(oie, inExtends);
     }
-    
+
     private final class ContinueVisitor extends Visitor {
         Tree.Continue node;
         boolean found;
@@ -76,78 +108,183 @@ public class SpecificationVisitor extends Visitor {
         }
     }
 
-    class SpecificationState {
-        boolean definitely;
-        boolean possibly;
-        boolean exited;
-        boolean byExits;
-        SpecificationState(boolean definitely, boolean possibly) {
-            this.definitely = definitely;
-            this.possibly = possibly;
-            this.exited = false;
-            this.byExits = true;
+    public SpecificationVisitor(Declaration declaration) {
+        this(Collections.singletonList(declaration), null);
+    }
+
+    /**
+     * Check every declaration of the compilation unit,
+     * leaving the errors in the given {@link FlowErrors}.
+     */
+    public SpecificationVisitor(FlowErrors errors) {
+        this(errors.getDeclarations(), errors);
+    }
+
+    private SpecificationVisitor(List<Declaration> declarations,
+            FlowErrors errors) {
+        this.declarations = declarations;
+        this.errors = errors;
+        count = declarations.size();
+        definitely = new FlowState(count);
+        possibly = new FlowState(count);
+        exited = new FlowState(count);
+        byExits = new FlowState(count);
+        withinDeclaration = new FlowState(count);
+        inLoop = new FlowState(count);
+        declared = new FlowState(count);
+        hasParameter = new FlowState(count);
+        declarationSection = new FlowState(count);
+        inExtends = new FlowState(count);
+        inAnonFunctionOrComprehension = new FlowState(count);
+        withinAttributeInitializer = new FlowState(count);
+        states = new FlowState[] { definitely, possibly,
+                exited, byExits, withinDeclaration, inLoop,
+                declared, hasParameter, declarationSection,
+                inExtends, inAnonFunctionOrComprehension,
+                withinAttributeInitializer };
+        scopes = new FlowState.Stack(count);
+        constant = new FlowState(count);
+        shared = new FlowState(count);
+        excluded = new FlowState(count);
+        byExits.set();
+        withinDeclaration.set();
+        for (int i=0; i<count; i++) {
+            Declaration declaration = declarations.get(i);
+            constant.set(i, !isVariable(declaration) &&
+                    !isLate(declaration));
+            shared.set(i, (declaration.isShared() ||
+                    declaration.getOtherInstanceAccess()) &&
+                    !declaration.isFormal() &&
+                    !declaration.isNative() &&
+                    !isLate(declaration));
         }
     }
-    
-    public SpecificationVisitor(Declaration declaration) {
-        this.declaration = declaration;
+
+    /**
+     * The index of the given declaration, or -1 if it is
+     * not one of the declarations we are checking.
+     */
+    private int indexOf(Declaration declaration) {
+        if (errors==null) {
+            return declaration==declarations.get(0) ? 0 : -1;
+        }
+        else {
+            return errors.indexOf(declaration);
+        }
+    }
+
+    private void addError(Node node, String message, int index) {
+        if (errors==null) {
+            node.addError(message);
+        }
+        else if (!excluded.get(index)) {
+            errors.addError(node, message, index,
+                    FlowErrors.SPECIFICATION);
+        }
+    }
+
+    private void addError(Node node, String message, int code,
+            int index) {
+        if (errors==null) {
+            node.addError(message, code);
+        }
+        else if (!excluded.get(index)) {
+            errors.addError(node, message, code, index,
+                    FlowErrors.SPECIFICATION);
+        }
+    }
+
+    @Override
+    public void handleException(Exception e, Node that) {
+        if (errors==null) {
+            super.handleException(e, that);
+        }
+        else {
+            //the declarations will be checked again, one
+            //at a time, to report the exception
+            errors.fail();
+        }
     }
-    
-    private void declare() {
-        declared = true;
+
+    private void declare(int index) {
+        declared.set(index);
     }
-    
-    private boolean beginDeclarationScope() {
-        return declared;
+
+    private int beginDeclarationScope() {
+        return scopes.push(declared);
     }
-    
-    private void endDeclarationScope(boolean d) {
-        declared = d;
+
+    private void endDeclarationScope(int d) {
+        scopes.pop(d, declared);
     }
-    
-    private boolean beginDisabledSpecificationScope() {
-        boolean ca = withinDeclaration;
-        withinDeclaration = true;
+
+    private int beginDisabledSpecificationScope() {
+        int ca = scopes.push(withinDeclaration);
+        withinDeclaration.set();
         return ca;
     }
-    
-    private void endDisabledSpecificationScope(boolean ca) {
-        withinDeclaration = ca;
+
+    private void endDisabledSpecificationScope(int ca) {
+        scopes.pop(ca, withinDeclaration);
     }
-    
-    private void specify() {
-        specified.definitely = true;
-        specified.possibly = true;
+
+    private void specify(int index) {
+        definitely.set(index);
+        possibly.set(index);
     }
-    
+
     private void exit() {
-        specified.exited = true;
+        exited.set();
     }
-    
-    private SpecificationState beginSpecificationScope() {
-        SpecificationState as = specified;
-        specified = new SpecificationState(specified.definitely, 
-                specified.possibly);
+
+    private int beginSpecificationScope() {
+        int as = scopes.push(definitely);
+        scopes.push(possibly);
+        scopes.push(exited);
+        scopes.push(byExits);
+        exited.clear();
+        byExits.set();
         return as;
     }
-    
-    private void endSpecificationScope(SpecificationState as) {
-        specified = as;
+
+    private void endSpecificationScope(int as) {
+        scopes.pop(as+3, byExits);
+        scopes.pop(as+2, exited);
+        scopes.pop(as+1, possibly);
+        scopes.pop(as, definitely);
+    }
+
+    /**
+     * Restore the given state, except for the fact about
+     * the given declaration, if any.
+     */
+    private void pop(int depth, FlowState state, int index) {
+        boolean known = index>=0 && state.get(index);
+        scopes.pop(depth, state);
+        if (index>=0) {
+            state.set(index, known);
+        }
+    }
+
+    private FlowState definitelyOrExited() {
+        FlowState result = definitely.copy();
+        result.or(exited);
+        return result;
     }
-    
-    private boolean isVariable() {
+
+    private static boolean isVariable(Declaration declaration) {
         return (declaration instanceof TypedDeclaration)
             && ((TypedDeclaration) declaration).isVariable();
     }
-    
-    private boolean isLate() {
+
+    private static boolean isLate(Declaration declaration) {
         return (declaration instanceof MethodOrValue)
             && ((MethodOrValue) declaration).isLate();
     }
-    
+
     @Override
     public void visit(Tree.AnnotationList that) {}
-    
+
     @Override
     public void visit(Tree.BaseMemberExpression that) {
         super.visit(that);
@@ -171,12 +308,12 @@ public class SpecificationVisitor extends Visitor {
         //the BaseMemberExpressions in the CaseTypes
         //list are actually types, not value refs!
     }
-    
+
     @Override
     public void visit(Tree.SatisfiedTypes that) {
         //unnecessary ... for consistency nothing else
     }
-    
+
     @Override
     public void visit(Tree.BaseTypeExpression that) {
         super.visit(that);
@@ -200,7 +337,7 @@ public class SpecificationVisitor extends Visitor {
     }
 
     private boolean isSelfReference(Tree.Primary that) {
-        return that instanceof Tree.This || 
+        return that instanceof Tree.This ||
                 that instanceof Tree.Outer;
     }
 
@@ -209,7 +346,7 @@ public class SpecificationVisitor extends Visitor {
         boolean assigned;
         boolean metamodel;
         if (that instanceof Tree.MemberOrTypeExpression) {
-            Tree.MemberOrTypeExpression mte = 
+            Tree.MemberOrTypeExpression mte =
                     (Tree.MemberOrTypeExpression) that;
             member = mte.getDeclaration();
             assigned = mte.getAssigned();
@@ -226,117 +363,127 @@ public class SpecificationVisitor extends Visitor {
         }
         //Declaration member = getDeclaration(that.getScope(), that.getUnit(), id, context);
         //TODO: check superclass members are not in declaration section!
-        if (member==declaration && 
+        int index = indexOf(member);
+        if (index>=0 &&
                 member.isDefinedInScope(that.getScope())) {
-            if (!declared) {
-                //you are allowed to refer to later 
+            if (!declared.get(index)) {
+                //you are allowed to refer to later
                 //declarations in a class declaration
                 //section or interface
-                if (withinAttributeInitializer && 
-                		member instanceof Value && 
+                if (withinAttributeInitializer.get(index) &&
+                		member instanceof Value &&
                 		!(((Value) member).isTransient())) {
-                	that.addError("reference to value within its initializer: '" + 
-                			member.getName() + "'");
+                	addError(that, "reference to value within its initializer: '" +
+                			member.getName() + "'", index);
                 }
-                else if (!metamodel && !isForwardReferenceable() && !hasParameter) {
-                    if (declaration.getContainer() instanceof Class) {
-                        that.addError("forward reference to class member in initializer: '" + 
-                                member.getName() + 
-                                "' is not yet declared (forward references must occur in declaration section)");
+                else if (!metamodel && !isForwardReferenceable(index) &&
+                        !hasParameter.get(index)) {
+                    if (member.getContainer() instanceof Class) {
+                        addError(that, "forward reference to class member in initializer: '" +
+                                member.getName() +
+                                "' is not yet declared (forward references must occur in declaration section)",
+                                index);
                     }
                     else {
-                        that.addError("forward reference to local declaration: '" + 
-                                member.getName() + "' is not yet declared");
+                        addError(that, "forward reference to local declaration: '" +
+                                member.getName() + "' is not yet declared", index);
                     }
                 }
             }
-            else if (!specified.definitely || 
-                    declaration.isFormal()) {
+            else if (!definitely.get(index) ||
+                    member.isFormal()) {
                 //you are allowed to refer to formal
                 //declarations in a class declaration
                 //section or interface
-                if (declaration.isFormal()) {
-                    if (!isForwardReferenceable()) {
-                        that.addError("formal member may not be used in initializer: '" + 
-                                member.getName() + "'");                    
+                if (member.isFormal()) {
+                    if (!isForwardReferenceable(index)) {
+                        addError(that, "formal member may not be used in initializer: '" +
+                                member.getName() + "'", index);
                     }
                 }
-                else if (!declaration.isNative() && !metamodel) {
-                    if (!isLate() || !isForwardReferenceable()) {
-                        if (isVariable()) {
-                            that.addError("not definitely initialized: '" + 
-                                    member.getName() + "'");                    
+                else if (!member.isNative() && !metamodel) {
+                    if (!isLate(member) || !isForwardReferenceable(index)) {
+                        if (isVariable(member)) {
+                            addError(that, "not definitely initialized: '" +
+                                    member.getName() + "'", index);
                         }
                         else {
-                            that.addError("not definitely specified: '" + 
-                                    member.getName() + "'");
+                            addError(that, "not definitely specified: '" +
+                                    member.getName() + "'", index);
                         }
                     }
                 }
             }
-            if (!assigned && member.isDefault() && 
-                    !isForwardReferenceable()) {
-                that.addError("default member may not be used in initializer: '" + 
-                        member.getName() + "'"); 
+            if (!assigned && member.isDefault() &&
+                    !isForwardReferenceable(index)) {
+                addError(that, "default member may not be used in initializer: '" +
+                        member.getName() + "'", index);
             }
-            if (inAnonFunctionOrComprehension && 
-                specified.definitely && 
-                isVariable()) {
-                that.addError("variable member may not be captured by comprehension or function in extends clause: '"+
-                        member.getName() + "'");
+            if (inAnonFunctionOrComprehension.get(index) &&
+                definitely.get(index) &&
+                isVariable(member)) {
+                addError(that, "variable member may not be captured by comprehension or function in extends clause: '"+
+                        member.getName() + "'", index);
             }
         }
     }
 
-    private boolean isForwardReferenceable() {
-        return declarationSection ||
+    private boolean isForwardReferenceable(int index) {
+        Declaration declaration = declarations.get(index);
+        return declarationSection.get(index) ||
                 declaration.isToplevel() ||
                 declaration.isInterfaceMember();
     }
-    
+
     @Override
     public void visit(Tree.LogicalOp that) {
         that.getLeftTerm().visit(this);
-    	SpecificationState ss = beginSpecificationScope();
+    	int ss = beginSpecificationScope();
         that.getRightTerm().visit(this);
     	endSpecificationScope(ss);
     }
-    
+
     @Override
     public void visit(Tree.Comprehension that) {
-        boolean oicoaf = inAnonFunctionOrComprehension;
-        inAnonFunctionOrComprehension = declared&&inExtends;
+        int oicoaf = scopes.push(inAnonFunctionOrComprehension);
+        inAnonFunctionOrComprehension.copyFrom(declared);
+        inAnonFunctionOrComprehension.and(inExtends);
         super.visit(that);
-        inAnonFunctionOrComprehension = oicoaf;
+        scopes.pop(oicoaf, inAnonFunctionOrComprehension);
     }
-    
+
     @Override
     public void visit(Tree.FunctionArgument that) {
-    	boolean c = beginDisabledSpecificationScope();
-        boolean oicoaf = inAnonFunctionOrComprehension;
-        inAnonFunctionOrComprehension = declared&&inExtends;
-    	SpecificationState ss = beginSpecificationScope();
+    	int c = beginDisabledSpecificationScope();
+        int oicoaf = scopes.push(inAnonFunctionOrComprehension);
+        inAnonFunctionOrComprehension.copyFrom(declared);
+        inAnonFunctionOrComprehension.and(inExtends);
+    	int ss = beginSpecificationScope();
     	super.visit(that);
     	endSpecificationScope(ss);
-        inAnonFunctionOrComprehension = oicoaf;
+        scopes.pop(oicoaf, inAnonFunctionOrComprehension);
         endDisabledSpecificationScope(c);
     }
-    
+
     @Override
     public void visit(Tree.AssignOp that) {
         Tree.Term lt = that.getLeftTerm();
         if (isEffectivelyBaseMemberExpression(lt)) {
-            Tree.StaticMemberOrTypeExpression m = 
+            Tree.StaticMemberOrTypeExpression m =
                     (Tree.StaticMemberOrTypeExpression) lt;
-//            Declaration member = getTypedDeclaration(m.getScope(), 
+//            Declaration member = getTypedDeclaration(m.getScope(),
 //                    name(m.getIdentifier()), null, false, m.getUnit());
             Declaration member = m.getDeclaration();
-            if (member==declaration) {
+            int index = indexOf(member);
+            if (index>=0) {
+                //the left term concerns no other
+                //declaration, so it doesn't matter that
+                //it is visited after the right term
                 if (that.getRightTerm()!=null) {
                     that.getRightTerm().visit(this);
                 }
                 checkVariable(lt, that);
-                specify();
+                specify(index);
                 lt.visit(this);
             }
             else {
@@ -344,7 +491,7 @@ public class SpecificationVisitor extends Visitor {
             }
         }
     }
-    
+
     @Override
     public void visit(Tree.AssignmentOp that) {
         super.visit(that);
@@ -356,36 +503,38 @@ public class SpecificationVisitor extends Visitor {
         super.visit(that);
         checkVariable(that.getTerm(), that);
     }
-    
+
     @Override
     public void visit(Tree.PrefixOperatorExpression that) {
         super.visit(that);
         checkVariable(that.getTerm(), that);
     }
-    
+
     private void checkVariable(Tree.Term term, Node node) {
         //TODO: sometimes we get a dupe error b/w here and
         //      ExpressionVisitor.checkAssignable()
         if (isEffectivelyBaseMemberExpression(term)) {
-            Tree.StaticMemberOrTypeExpression m = 
+            Tree.StaticMemberOrTypeExpression m =
                     (Tree.StaticMemberOrTypeExpression) term;
-//            Declaration member = getTypedDeclaration(m.getScope(), 
+//            Declaration member = getTypedDeclaration(m.getScope(),
 //                    name(m.getIdentifier()), null, false, m.getUnit());
             Declaration member = m.getDeclaration();
-            if (member==declaration) {
-            	if ((declaration.isFormal() || declaration.isDefault()) && 
-            	        !isForwardReferenceable()) {
-	        		node.addError("member is formal and may not be assigned: '" +
-	        				member.getName() + "' is declared formal");
+            int index = indexOf(member);
+            if (index>=0) {
+            	if ((member.isFormal() || member.isDefault()) &&
+            	        !isForwardReferenceable(index)) {
+	        		addError(node, "member is formal and may not be assigned: '" +
+	        				member.getName() + "' is declared formal", index);
             	}
-            	else if (!isVariable() && !isLate()) {
+            	else if (!isVariable(member) && !isLate(member)) {
                     if (node instanceof Tree.AssignOp) {
-                        node.addError("cannot assign non-variable value here: '" +
-                                        member.getName() + "' is not a variable", 803);
+                        addError(node, "cannot assign non-variable value here: '" +
+                                        member.getName() + "' is not a variable", 803,
+                                        index);
                     }
                     else {
-                        term.addError("not a variable: '" +
-                                member.getName() + "'", 800);
+                        addError(term, "not a variable: '" +
+                                member.getName() + "'", 800, index);
                     }
                 }
             }
@@ -397,10 +546,10 @@ public class SpecificationVisitor extends Visitor {
                 term instanceof Tree.QualifiedMemberExpression &&
                 isSelfReference(((Tree.QualifiedMemberExpression) term).getPrimary());
     }
-    
+
     private Tree.Continue lastContinue;
     private Tree.Statement lastContinueStatement;
-    
+
     @Override
     public void visit(Tree.Block that) {
         boolean oe = endsInBreakReturnThrow;
@@ -410,12 +559,12 @@ public class SpecificationVisitor extends Visitor {
         //occurs in another conditional branch of the
         //statement containing this block, even though we
         //did not find it in _this_ branch
-        boolean continueInSomeBranchOfCurrentConditional = 
-                lastContinue!=null && 
+        boolean continueInSomeBranchOfCurrentConditional =
+                lastContinue!=null &&
                 lastContinueStatement==null;
-        boolean blockEndsInBreakReturnThrow = 
+        boolean blockEndsInBreakReturnThrow =
                 blockEndsInBreakReturnThrow(that);
-        endsInBreakReturnThrow = endsInBreakReturnThrow || 
+        endsInBreakReturnThrow = endsInBreakReturnThrow ||
                 blockEndsInBreakReturnThrow;
         Tree.Continue last = null;
         Tree.Statement lastStatement = null;
@@ -431,7 +580,7 @@ public class SpecificationVisitor extends Visitor {
                 olcs = null;
             }
         }
-        if (blockEndsInBreakReturnThrow || 
+        if (blockEndsInBreakReturnThrow ||
                 continueInSomeBranchOfCurrentConditional) {
             lastContinue = last;
             lastContinueStatement = lastStatement;
@@ -454,7 +603,7 @@ public class SpecificationVisitor extends Visitor {
             return false;
         }
     }
-    
+
     @Override
     public void visit(Tree.ForClause that) {
         boolean oe = endsInBreakReturnThrow;
@@ -465,7 +614,7 @@ public class SpecificationVisitor extends Visitor {
         endsInBreakReturnThrow = oe;
         lastContinue = olc;
     }
-    
+
     @Override
     public void visit(Tree.WhileClause that) {
         boolean oe = endsInBreakReturnThrow;
@@ -476,34 +625,41 @@ public class SpecificationVisitor extends Visitor {
         endsInBreakReturnThrow = oe;
         lastContinue = olc;
     }
-    
+
     @Override
     public void visit(Tree.CompilationUnit that) {
     	for (Tree.Declaration st: that.getDeclarations()) {
-    		withinAttributeInitializer = 
-    				(st instanceof Tree.AttributeDeclaration) &&
-    				st.getDeclarationModel()==declaration &&
-    				!(((Tree.AttributeDeclaration) st).getSpecifierOrInitializerExpression()
-    						instanceof Tree.LazySpecifierExpression);
+    		beginAttributeInitializer(st);
     		st.visit(this);
-    		withinAttributeInitializer = false;
+    		withinAttributeInitializer.clear();
     	}
     }
 
     @Override
     public void visit(Tree.Body that) {
     	for (Tree.Statement st: that.getStatements()) {
-    		withinAttributeInitializer = 
-    				(st instanceof Tree.AttributeDeclaration) &&
-    				((Tree.AttributeDeclaration) st).getDeclarationModel()==declaration &&
-    				!(((Tree.AttributeDeclaration) st).getSpecifierOrInitializerExpression()
-    						instanceof Tree.LazySpecifierExpression);
+    		beginAttributeInitializer(st);
     		st.visit(this);
-    		withinAttributeInitializer = false;
+    		withinAttributeInitializer.clear();
     	}
     }
-    
-    private String longdesc() {
+
+    private void beginAttributeInitializer(Tree.Statement st) {
+        withinAttributeInitializer.clear();
+        if (st instanceof Tree.AttributeDeclaration) {
+            Tree.AttributeDeclaration ad =
+                    (Tree.AttributeDeclaration) st;
+            if (!(ad.getSpecifierOrInitializerExpression()
+                    instanceof Tree.LazySpecifierExpression)) {
+                int index = indexOf(ad.getDeclarationModel());
+                if (index>=0) {
+                    withinAttributeInitializer.set(index);
+                }
+            }
+        }
+    }
+
+    private static String longdesc(Declaration declaration) {
         if (declaration instanceof Value) {
             return "value is neither variable nor late and";
         }
@@ -514,8 +670,8 @@ public class SpecificationVisitor extends Visitor {
             return "declaration";
         }
     }
-    
-    private String shortdesc() {
+
+    private static String shortdesc(Declaration declaration) {
         if (declaration instanceof Value) {
             return "value";
         }
@@ -535,95 +691,106 @@ public class SpecificationVisitor extends Visitor {
         }
         if (m instanceof Tree.BaseMemberExpression) {
             Tree.BaseMemberExpression bme = (Tree.BaseMemberExpression) m;
-//            Declaration member = getTypedDeclaration(bme.getScope(), 
+//            Declaration member = getTypedDeclaration(bme.getScope(),
 //                    name(bme.getIdentifier()), null, false, bme.getUnit());
 	        Declaration member = bme.getDeclaration();
-	        if (member==declaration) {
-	        	if ((declaration.isFormal() || declaration.isDefault()) && 
-	        	        !isForwardReferenceable()) {
+	        int index = indexOf(member);
+	        if (index>=0) {
+	            if (count>1 && m!=that.getBaseMemberExpression()) {
+	                visitParameterLists(that.getBaseMemberExpression(), index);
+	            }
+	        	if ((member.isFormal() || member.isDefault()) &&
+	        	        !isForwardReferenceable(index)) {
 	        	    //TODO: is this error correct?! look at the condition above
-	        		that.addError("member is formal and may not be specified: '" +
-	        				member.getName() + "' is declared formal");
+	        		addError(that, "member is formal and may not be specified: '" +
+	        				member.getName() + "' is declared formal", index);
 	        	}
 	        	if (that.getRefinement()) {
-	        	    declare();
+	        	    declare(index);
 	        	}
                 Tree.SpecifierExpression se = that.getSpecifierExpression();
 				boolean lazy = se instanceof Tree.LazySpecifierExpression;
-            	if (declaration instanceof Value) {
-            		Value value = (Value) declaration;
+            	if (member instanceof Value) {
+            		Value value = (Value) member;
             	    if (!value.isVariable() &&
             	            lazy!=value.isTransient()) {
 	            		// check that all assignments to a non-variable, in
             	    	// different paths of execution, all use the same
             	    	// kind of specifier, all =>, or all =
-            	    	// TODO: sometimes this error appears only because 
+            	    	// TODO: sometimes this error appears only because
             	    	//       of a later line which illegally reassigns
-	            		that.addError("value must be specified using => lazy specifier: '" +
-	            		        member.getName() + "'");
+	            		addError(that, "value must be specified using => lazy specifier: '" +
+	            		        member.getName() + "'", index);
             	    }
             	    if (lazy) {
             	        if (value.isVariable()) {
-            	            that.addError("variable value may not be specified using => lazy specifier: '" +
-            	                    member.getName() + "'");
+            	            addError(that, "variable value may not be specified using => lazy specifier: '" +
+            	                    member.getName() + "'", index);
             	        }
             	        else if (value.isLate()) {
-            	            that.addError("late reference may not be specified using => lazy specifier: '" +
-            	                    member.getName() + "'");
+            	            addError(that, "late reference may not be specified using => lazy specifier: '" +
+            	                    member.getName() + "'", index);
             	        }
             	    }
             	}
 	            if (!lazy) {
 	            	se.visit(this);
 	            }
-	            boolean constant = !isVariable() && !isLate();
-	            if (constant && !declaration.isDefinedInScope(that.getScope())) {
+	            boolean constant = !isVariable(member) && !isLate(member);
+	            if (constant && !member.isDefinedInScope(that.getScope())) {
 	                //this error is added by ExpressionVisitor
-//                    that.addError("inherited member is not variable and may not be specified here: '" + 
+//                    that.addError("inherited member is not variable and may not be specified here: '" +
 //                            member.getName() + "'");
 	            }
-	            else if (!declared && constant) {
-                    that.addError(shortdesc() + 
-                            " is not yet declared: '" + 
-                            member.getName() + "'");
+	            else if (!declared.get(index) && constant) {
+                    addError(that, shortdesc(member) +
+                            " is not yet declared: '" +
+                            member.getName() + "'", index);
 	            }
-	            else if (inLoop && constant && 
+	            else if (inLoop.get(index) && constant &&
 	                    !(endsInBreakReturnThrow && lastContinue==null)) {
-	            	if (specified.definitely) {
-	            		that.addError(longdesc() + 
-	            		        " is aready definitely specified: '" + 
-	            				member.getName() + "'", 803);
+	            	if (definitely.get(index)) {
+	            		addError(that, longdesc(member) +
+	            		        " is aready definitely specified: '" +
+	            				member.getName() + "'", 803, index);
 	            	}
 	            	else {
-	            		that.addError(longdesc() + 
-	            		        " is not definitely unspecified in loop: '" + 
-	            				member.getName() + "'", 803);
+	            		addError(that, longdesc(member) +
+	            		        " is not definitely unspecified in loop: '" +
+	            				member.getName() + "'", 803, index);
 	            	}
 	            }
-                else if (withinDeclaration && constant && 
+                else if (withinDeclaration.get(index) && constant &&
                         !that.getRefinement()) {
-                    that.addError("cannot specify " + shortdesc() + 
-                            " being declared: '" + member.getName() + "'", 803);
+                    addError(that, "cannot specify " + shortdesc(member) +
+                            " being declared: '" + member.getName() + "'", 803,
+                            index);
                 }
-	            else if (specified.possibly && constant) {
-	            	if (specified.definitely) {
-	            		that.addError(longdesc() + 
-	            		        " is aready definitely specified: '" + 
-	            				member.getName() + "'", 803);
+	            else if (possibly.get(index) && constant) {
+	            	if (definitely.get(index)) {
+	            		addError(that, longdesc(member) +
+	            		        " is aready definitely specified: '" +
+	            				member.getName() + "'", 803, index);
 	            	}
 	            	else {
-	            		that.addError(longdesc() + 
-	            		        " is not definitely unspecified: '" + 
-	            				member.getName() + "'", 803);
+	            		addError(that, longdesc(member) +
+	            		        " is not definitely unspecified: '" +
+	            				member.getName() + "'", 803, index);
 	            	}
 	            }
 	            else {
-	                specify();
+	                specify(index);
 	                m.visit(this);
 	            }
 	            if (lazy) {
 	                se.visit(this);
 	            }
+	            //the specified declaration is not in the
+	            //declaration section of its class until
+	            //after the statement
+	            boolean ds = declarationSection.get(index);
+	            checkDeclarationSection(that);
+	            declarationSection.set(index, ds);
 	        }
 	        else {
 	            super.visit(that);
@@ -633,32 +800,64 @@ public class SpecificationVisitor extends Visitor {
             super.visit(that);
         }
     }
-    
+
+    /**
+     * Visit the parameter lists of a function specified
+     * by a specifier statement, for the declarations other
+     * than the function, leaving the state of the function
+     * as it was.
+     */
+    private void visitParameterLists(Tree.Term term, int index) {
+        long facts = 0;
+        for (int i=0; i<states.length; i++) {
+            if (states[i].get(index)) {
+                facts |= 1L<<i;
+            }
+        }
+        boolean wasExcluded = excluded.get(index);
+        boolean oe = endsInBreakReturnThrow;
+        Tree.Continue olc = lastContinue;
+        Tree.Statement olcs = lastContinueStatement;
+        excluded.set(index);
+        term.visit(this);
+        excluded.set(index, wasExcluded);
+        for (int i=0; i<states.length; i++) {
+            states[i].set(index, (facts & 1L<<i)!=0);
+        }
+        if (endsInBreakReturnThrow!=oe ||
+                lastContinue!=olc ||
+                lastContinueStatement!=olcs) {
+            //the parameter lists affected the state of
+            //the function too
+            errors.fail();
+        }
+    }
+
     @Override
     public void visit(Tree.Declaration that) {
         boolean oe = endsInBreakReturnThrow;
         Tree.Continue olc = lastContinue;
         lastContinue = null;
         endsInBreakReturnThrow = false;
-        if (that.getDeclarationModel()==declaration) {
-            inLoop = false;
-            beginDisabledSpecificationScope();
-            declare();
-            super.visit(that);
-            endDisabledSpecificationScope(false);
-            inLoop = false;
+        //the declared declaration is in scope after its
+        //declaration, and the others are as they were
+        int index = indexOf(that.getDeclarationModel());
+        int l = scopes.push(inLoop);
+        inLoop.clear();
+        int c = beginDisabledSpecificationScope();
+        int d = beginDeclarationScope();
+        int as = beginSpecificationScope(index);
+        if (index>=0) {
+            declare(index);
         }
-        else {
-            boolean l = inLoop;
-            inLoop = false;
-            boolean c = beginDisabledSpecificationScope();
-            boolean d = beginDeclarationScope();
-            SpecificationState as = beginSpecificationScope();
-            super.visit(that);
-            endDisabledSpecificationScope(c);
-            endDeclarationScope(d);
-            endSpecificationScope(as);
-            inLoop = l;
+        super.visit(that);
+        endSpecificationScope(as, index);
+        pop(d, declared, index);
+        endDisabledSpecificationScope(c);
+        scopes.pop(l, inLoop);
+        if (index>=0) {
+            withinDeclaration.clear(index);
+            inLoop.clear(index);
         }
         endsInBreakReturnThrow = oe;
         lastContinue = olc;
@@ -666,55 +865,78 @@ public class SpecificationVisitor extends Visitor {
 
     @Override
     public void visit(Tree.TypedArgument that) {
-        if (that.getDeclarationModel()==declaration) {
-            inLoop = false;
-            beginDisabledSpecificationScope();
-            super.visit(that);
-            declare();
-            endDisabledSpecificationScope(false);
-            inLoop = false;
+        int index = indexOf(that.getDeclarationModel());
+        int l = scopes.push(inLoop);
+        inLoop.clear();
+        int c = beginDisabledSpecificationScope();
+        int d = beginDeclarationScope();
+        int as = beginSpecificationScope(index);
+        super.visit(that);
+        if (index>=0) {
+            declare(index);
         }
-        else {
-            boolean l = inLoop;
-            inLoop = false;
-            boolean c = beginDisabledSpecificationScope();
-            boolean d = beginDeclarationScope();
-            SpecificationState as = beginSpecificationScope();
-            super.visit(that);
-            endDisabledSpecificationScope(c);
-            endDeclarationScope(d);
-            endSpecificationScope(as);
-            inLoop = l;
+        endSpecificationScope(as, index);
+        pop(d, declared, index);
+        endDisabledSpecificationScope(c);
+        scopes.pop(l, inLoop);
+        if (index>=0) {
+            withinDeclaration.clear(index);
+            inLoop.clear(index);
+        }
+    }
+
+    /**
+     * Begin a specification scope for every declaration
+     * except the given declaration, if any.
+     */
+    private int beginSpecificationScope(int index) {
+        boolean ex = index>=0 && exited.get(index);
+        boolean be = index>=0 && byExits.get(index);
+        int as = beginSpecificationScope();
+        if (index>=0) {
+            exited.set(index, ex);
+            byExits.set(index, be);
         }
+        return as;
+    }
+
+    private void endSpecificationScope(int as, int index) {
+        pop(as+3, byExits, index);
+        pop(as+2, exited, index);
+        pop(as+1, possibly, index);
+        pop(as, definitely, index);
     }
-    
+
     @Override
     public void visit(Tree.MethodDeclaration that) {
-        if (that.getDeclarationModel()==declaration) {
+        int index = indexOf(that.getDeclarationModel());
+        if (index>=0) {
+            Declaration declaration = declarations.get(index);
             if (that.getSpecifierExpression()!=null) {
-                specify();
+                specify(index);
                 super.visit(that);
             }
             else {
                 super.visit(that);
-            	if (declaration.isToplevel() && 
+            	if (declaration.isToplevel() &&
 	                    !declaration.isNative()) {
-	                that.addError("toplevel function must be specified: '" +
-	                        declaration.getName() + "' may not be forward declared");
+	                addError(that, "toplevel function must be specified: '" +
+	                        declaration.getName() + "' may not be forward declared",
+	                        index);
 	            }
-	            else if (declaration.isClassMember() && 
-	                    !declaration.isNative() && 
-	                    !declaration.isFormal() && 
+	            else if (declaration.isClassMember() &&
+	                    !declaration.isNative() &&
+	                    !declaration.isFormal() &&
 	                    that.getDeclarationModel().getInitializerParameter()==null &&
-	                    declarationSection) {
-	                that.addError("forward declaration may not occur in declaration section: '" +
-	                            declaration.getName() + "'", 1450);
+	                    declarationSection.get(index)) {
+	                addError(that, "forward declaration may not occur in declaration section: '" +
+	                            declaration.getName() + "'", 1450, index);
 	            }
-	            else if (declaration.isInterfaceMember() && 
+	            else if (declaration.isInterfaceMember() &&
 	                    !declaration.isNative() &&
 	            		!declaration.isFormal()) {
-	                that.addError("interface method must be formal or specified: '" +
-	                        declaration.getName() + "'", 1400);
+	                addError(that, "interface method must be formal or specified: '" +
+	                        declaration.getName() + "'", 1400, index);
 	            }
             }
         }
@@ -722,91 +944,97 @@ public class SpecificationVisitor extends Visitor {
             super.visit(that);
         }
     }
-    
+
+    private void declareAndSpecify(Declaration declaration) {
+        int index = indexOf(declaration);
+        if (index>=0) {
+            declare(index);
+            specify(index);
+        }
+    }
+
+    private void specify(Declaration declaration) {
+        int index = indexOf(declaration);
+        if (index>=0) {
+            specify(index);
+        }
+    }
+
     @Override
     public void visit(Tree.MethodDefinition that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
+        declareAndSpecify(that.getDeclarationModel());
         super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.MethodArgument that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
+        declareAndSpecify(that.getDeclarationModel());
         super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.Variable that) {
         super.visit(that);
-        if (that.getDeclarationModel()==declaration) {
-            specify();
-        }
+        specify(that.getDeclarationModel());
     }
-    
+
     @Override
     public void visit(Tree.Parameter that) {
         super.visit(that);
-        if (that.getParameterModel().getModel()==declaration) {
-            specify();
-        }
+        specify(that.getParameterModel().getModel());
     }
-    
+
     @Override
     public void visit(Tree.InitializerParameter that) {
         super.visit(that);
         Parameter d = that.getParameterModel();
         Declaration a = that.getScope().getDirectMember(d.getName(), null, false);
-        if (a!=null && a==declaration) {
-            specify();
-            hasParameter = true;
+        int index = indexOf(a);
+        if (index>=0) {
+            specify(index);
+            hasParameter.set(index);
         }
     }
-    
+
     @Override
     public void visit(Tree.TypeParameterDeclaration that) {
         super.visit(that);
-        if (that.getDeclarationModel()==declaration) {
-            specify();
-        }
+        specify(that.getDeclarationModel());
     }
-    
+
     @Override
     public void visit(Tree.AttributeDeclaration that) {
-        if (that.getDeclarationModel()==declaration) {
-        	Tree.SpecifierOrInitializerExpression sie = 
+        int index = indexOf(that.getDeclarationModel());
+        if (index>=0) {
+            Declaration declaration = declarations.get(index);
+        	Tree.SpecifierOrInitializerExpression sie =
         	        that.getSpecifierOrInitializerExpression();
             if (sie!=null) {
                 super.visit(that);
-                specify();
+                specify(index);
             }
             else {
             	super.visit(that);
-            	if (declaration.isToplevel() && 
+            	if (declaration.isToplevel() &&
 	                    !declaration.isNative() &&
-	                    !isLate()) {
-	                if (isVariable()) {
-	                    that.addError("toplevel variable value must be initialized: '" +
-	                            declaration.getName() + "'");
+	                    !isLate(declaration)) {
+	                if (isVariable(declaration)) {
+	                    addError(that, "toplevel variable value must be initialized: '" +
+	                            declaration.getName() + "'", index);
 	                }
 	                else {
-	                    that.addError("toplevel value must be specified: '" +
-	                            declaration.getName() + "'");
+	                    addError(that, "toplevel value must be specified: '" +
+	                            declaration.getName() + "'", index);
 	                }
 	            }
-	            else if (declaration.isClassOrInterfaceMember() && 
+	            else if (declaration.isClassOrInterfaceMember() &&
 	                    !declaration.isNative() &&
 	                    !declaration.isFormal() &&
 	                    that.getDeclarationModel().getInitializerParameter()==null &&
 	                    !that.getDeclarationModel().isLate() &&
-	                    declarationSection) {
-	                that.addError("forward declaration may not occur in declaration section: '" +
-	                            declaration.getName() + "'", 1450);
+	                    declarationSection.get(index)) {
+	                addError(that, "forward declaration may not occur in declaration section: '" +
+	                            declaration.getName() + "'", 1450, index);
 	            }
             }
         }
@@ -814,79 +1042,93 @@ public class SpecificationVisitor extends Visitor {
         	super.visit(that);
         }
     }
-    
+
     @Override
     public void visit(Tree.AttributeGetterDefinition that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            super.visit(that);        
-            specify();
+        int index = indexOf(that.getDeclarationModel());
+        if (index>=0) {
+            declare(index);
+            super.visit(that);
+            specify(index);
         }
         else {
-            super.visit(that);        
+            super.visit(that);
         }
     }
-    
+
     @Override
     public void visit(Tree.AttributeSetterDefinition that) {
         Setter d = that.getDeclarationModel();
-        if (d==declaration ||
-            d.getParameter().getModel()==declaration) {
-            declare();
-            specify();
-        }
-        super.visit(that);        
+        declareAndSpecify(d);
+        declareAndSpecify(d.getParameter().getModel());
+        super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.AttributeArgument that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
-        super.visit(that);        
+        declareAndSpecify(that.getDeclarationModel());
+        super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.ObjectDefinition that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
+        declareAndSpecify(that.getDeclarationModel());
         super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.ObjectArgument that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
+        declareAndSpecify(that.getDeclarationModel());
         super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.AnyClass that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
+        declareAndSpecify(that.getDeclarationModel());
         super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.ClassBody that) {
-        Tree.Declaration d = getDeclaration(that);
-        if (d!=null) {
+        //the declarations of the class body
+        FlowState members = null;
+        for (Tree.Statement s: that.getStatements()) {
+            if (s instanceof Tree.Declaration) {
+                Tree.Declaration d = (Tree.Declaration) s;
+                int index = indexOf(d.getDeclarationModel());
+                if (index>=0) {
+                    if (members==null) {
+                        members = new FlowState(count);
+                    }
+                    members.set(index);
+                }
+            }
+        }
+        if (members!=null) {
             Tree.Statement les = getLastExecutableStatement(that);
-            declarationSection = les==null;
-            lastExecutableStatement = les;
-            super.visit(that);        
-            declarationSection = false;
-            lastExecutableStatement = null;
-            if (isSharedDeclarationUninitialized()) {
-                d.addError("must be definitely specified by class initializer: '" + 
-                        d.getDeclarationModel().getName(that.getUnit()) + "'", 1401);
+            if (les==null) {
+                declarationSection.or(members);
+            }
+            else {
+                declarationSection.andNot(members);
+                lastExecutableStatements.put(les, members);
+            }
+            super.visit(that);
+            declarationSection.andNot(members);
+            lastExecutableStatements.remove(les);
+            for (Tree.Statement s: that.getStatements()) {
+                if (s instanceof Tree.Declaration) {
+                    Tree.Declaration d = (Tree.Declaration) s;
+                    int index = indexOf(d.getDeclarationModel());
+                    if (index>=0 && members.get(index)) {
+                        members.clear(index);
+                        if (isSharedDeclarationUninitialized(index)) {
+                            addError(d, "must be definitely specified by class initializer: '" +
+                                    d.getDeclarationModel().getName(that.getUnit()) + "'",
+                                    1401, index);
+                        }
+                    }
+                }
             }
         }
         else {
@@ -894,18 +1136,6 @@ public class SpecificationVisitor extends Visitor {
         }
     }
 
-    private Tree.Declaration getDeclaration(Tree.ClassBody that) {
-        for (Tree.Statement s: that.getStatements()) {
-            if (s instanceof Tree.Declaration) {
-                Tree.Declaration d = (Tree.Declaration) s;
-                if (d.getDeclarationModel()==declaration) {
-                    return d;
-                }
-            }
-        }
-        return null;
-    }
-    
     @Override
     public void visit(Tree.Statement that) {
         super.visit(that);
@@ -913,54 +1143,50 @@ public class SpecificationVisitor extends Visitor {
     }
 
     private void checkDeclarationSection(Tree.Statement that) {
-        declarationSection = declarationSection || 
-                that==lastExecutableStatement;
+        FlowState members = lastExecutableStatements.get(that);
+        if (members!=null) {
+            declarationSection.or(members);
+        }
     }
-    
+
     @Override
     public void visit(Tree.AnyInterface that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
-        super.visit(that);        
+        declareAndSpecify(that.getDeclarationModel());
+        super.visit(that);
     }
-    
+
     @Override
     public void visit(Tree.TypeAliasDeclaration that) {
-        if (that.getDeclarationModel()==declaration) {
-            declare();
-            specify();
-        }
-        super.visit(that);        
+        declareAndSpecify(that.getDeclarationModel());
+        super.visit(that);
     }
-    
+
     public void visit(Tree.Return that) {
         super.visit(that);
-        if (!withinDeclaration) {
-            if (isSharedDeclarationUninitialized()) {
-                that.addError("must be definitely specified by class initializer: '" +
-                        declaration.getName(that.getUnit()) + "'");
-            }
+        FlowState uninitialized = shared.copy();
+        uninitialized.andNot(withinDeclaration);
+        uninitialized.andNot(definitely);
+        for (int index = uninitialized.next(0);
+                index>=0;
+                index = uninitialized.next(index+1)) {
+            addError(that, "must be definitely specified by class initializer: '" +
+                    declarations.get(index).getName(that.getUnit()) + "'",
+                    index);
         }
         exit();
     }
 
-    private boolean isSharedDeclarationUninitialized() {
-        return (declaration.isShared() || 
-        		declaration.getOtherInstanceAccess()) && 
-                !declaration.isFormal() && 
-                !declaration.isNative() &&
-                !isLate() &&
-                !specified.definitely;
+    private boolean isSharedDeclarationUninitialized(int index) {
+        return shared.get(index) &&
+                !definitely.get(index);
     }
-    
+
     @Override
     public void visit(Tree.Throw that) {
         super.visit(that);
         exit();
     }
-    
+
     @Override
     public void visit(Tree.Assertion that) {
         super.visit(that);
@@ -968,14 +1194,12 @@ public class SpecificationVisitor extends Visitor {
             exit();
         }
     }
-    
+
     @Override
     public void visit(Tree.Break that) {
         super.visit(that);
         exit();
-        if (!specified.definitely) {
-            specified.byExits = false;
-        }
+        byExits.and(definitely);
     }
 
     @Override
@@ -986,9 +1210,9 @@ public class SpecificationVisitor extends Visitor {
             lastContinue=null;
         }
     }
-    
+
     @Override
-    public void visit(Tree.IfStatement that) {        
+    public void visit(Tree.IfStatement that) {
         if (that==lastContinueStatement) {
             lastContinueStatement=null;
         }
@@ -1000,187 +1224,199 @@ public class SpecificationVisitor extends Visitor {
                 cl.visit(this);
             }
         }
-        
-        boolean d = beginDeclarationScope();
-        SpecificationState as = beginSpecificationScope();
+
+        int d = beginDeclarationScope();
+        int as = beginSpecificationScope();
         if (ifClause!=null) {
             Tree.Block block = ifClause.getBlock();
             if (block!=null) {
                 block.visit(this);
             }
         }
-        boolean definitelyAssignedByIfClause = specified.definitely || specified.exited;
-        boolean possiblyAssignedByIfClause = specified.possibly;
-        boolean possiblyExitedFromIfClause = specified.exited;
-        boolean specifiedByExitsFromIfClause = specified.byExits;
-        endDeclarationScope(d);
+        FlowState definitelyAssignedByIfClause = definitelyOrExited();
+        FlowState possiblyAssignedByIfClause = possibly.copy();
+        FlowState possiblyExitedFromIfClause = exited.copy();
+        FlowState specifiedByExitsFromIfClause = byExits.copy();
         endSpecificationScope(as);
-        
-        boolean definitelyAssignedByElseClause;
-        boolean possiblyAssignedByElseClause;
-        boolean possiblyExitedFromElseClause;
-        boolean specifiedByExitsFromElseClause;
+        endDeclarationScope(d);
+
+        FlowState definitelyAssignedByElseClause;
+        FlowState possiblyAssignedByElseClause;
+        FlowState possiblyExitedFromElseClause;
+        FlowState specifiedByExitsFromElseClause;
         Tree.ElseClause elseClause = that.getElseClause();
         if (elseClause!=null) {
             d = beginDeclarationScope();
             as = beginSpecificationScope();
             elseClause.visit(this);
-            definitelyAssignedByElseClause = specified.definitely || specified.exited;
-            possiblyAssignedByElseClause = specified.possibly;
-            possiblyExitedFromElseClause = specified.exited;
-            specifiedByExitsFromElseClause = specified.byExits;
-            endDeclarationScope(d);
+            definitelyAssignedByElseClause = definitelyOrExited();
+            possiblyAssignedByElseClause = possibly.copy();
+            possiblyExitedFromElseClause = exited.copy();
+            specifiedByExitsFromElseClause = byExits.copy();
             endSpecificationScope(as);
+            endDeclarationScope(d);
         }
         else {
-            definitelyAssignedByElseClause = false;
-            possiblyAssignedByElseClause = false;
-            possiblyExitedFromElseClause = false;
-            specifiedByExitsFromElseClause = true;
+            definitelyAssignedByElseClause = new FlowState(count);
+            possiblyAssignedByElseClause = new FlowState(count);
+            possiblyExitedFromElseClause = new FlowState(count);
+            specifiedByExitsFromElseClause = new FlowState(count);
+            specifiedByExitsFromElseClause.set();
         }
-        
+
         if (isAlwaysSatisfied(ifClause.getConditionList())) {
-            specified.definitely = specified.definitely || definitelyAssignedByIfClause;
-            specified.possibly = specified.possibly || possiblyAssignedByIfClause;
-            specified.exited = specified.exited || possiblyExitedFromIfClause;
-            specified.byExits = specified.byExits && specifiedByExitsFromIfClause;
-        } 
+            definitely.or(definitelyAssignedByIfClause);
+            possibly.or(possiblyAssignedByIfClause);
+            exited.or(possiblyExitedFromIfClause);
+            byExits.and(specifiedByExitsFromIfClause);
+        }
         else if (isNeverSatisfied(ifClause.getConditionList())) {
-            specified.definitely = specified.definitely || definitelyAssignedByElseClause;
-            specified.possibly = specified.possibly || possiblyAssignedByElseClause;
-            specified.exited = specified.exited || possiblyExitedFromElseClause;
-            specified.byExits = specified.byExits && specifiedByExitsFromElseClause;
+            definitely.or(definitelyAssignedByElseClause);
+            possibly.or(possiblyAssignedByElseClause);
+            exited.or(possiblyExitedFromElseClause);
+            byExits.and(specifiedByExitsFromElseClause);
         }
         else {
-            specified.definitely = specified.definitely || (definitelyAssignedByIfClause && definitelyAssignedByElseClause);
-            specified.possibly = specified.possibly || possiblyAssignedByIfClause || possiblyAssignedByElseClause;
-            specified.exited = specified.exited || possiblyExitedFromIfClause || possiblyExitedFromElseClause;
-            specified.byExits = specified.byExits && specifiedByExitsFromIfClause && specifiedByExitsFromElseClause;
+            definitelyAssignedByIfClause.and(definitelyAssignedByElseClause);
+            definitely.or(definitelyAssignedByIfClause);
+            possibly.or(possiblyAssignedByIfClause);
+            possibly.or(possiblyAssignedByElseClause);
+            exited.or(possiblyExitedFromIfClause);
+            exited.or(possiblyExitedFromElseClause);
+            byExits.and(specifiedByExitsFromIfClause);
+            byExits.and(specifiedByExitsFromElseClause);
         }
-        
+
         checkDeclarationSection(that);
     }
-    
+
     @Override
     public void visit(Tree.TryCatchStatement that) {
         if (that==lastContinueStatement) {
             lastContinueStatement=null;
         }
-        
-        boolean d = beginDeclarationScope();
-        SpecificationState as = beginSpecificationScope();
+
+        int d = beginDeclarationScope();
+        int as = beginSpecificationScope();
         Tree.TryClause tryClause = that.getTryClause();
         if (tryClause!=null ) {
             tryClause.visit(this);
         }
-        boolean definitelyAssignedByTryClause = specified.definitely || specified.exited;
-        boolean possiblyAssignedByTryClause = specified.possibly;
-        boolean possiblyExitedFromTryClause = specified.exited;
-        boolean specifiedByExitsFromTryClause = specified.byExits;
-        endDeclarationScope(d);
+        FlowState definitelyAssignedByTryClause = definitelyOrExited();
+        FlowState possiblyAssignedByTryClause = possibly.copy();
+        FlowState possiblyExitedFromTryClause = exited.copy();
+        FlowState specifiedByExitsFromTryClause = byExits.copy();
         endSpecificationScope(as);
-        specified.possibly = specified.possibly || possiblyAssignedByTryClause;
-        specified.exited = specified.exited || possiblyExitedFromTryClause;
-        
-        boolean definitelyAssignedByEveryCatchClause = true;
-        boolean possiblyAssignedBySomeCatchClause = false;
-        boolean possiblyExitedFromSomeCatchClause = false;
-        boolean specifiedByExitsFromEveryCatchClause = true;
+        endDeclarationScope(d);
+        possibly.or(possiblyAssignedByTryClause);
+        exited.or(possiblyExitedFromTryClause);
+
+        FlowState definitelyAssignedByEveryCatchClause = new FlowState(count);
+        definitelyAssignedByEveryCatchClause.set();
+        FlowState possiblyAssignedBySomeCatchClause = new FlowState(count);
+        FlowState possiblyExitedFromSomeCatchClause = new FlowState(count);
+        FlowState specifiedByExitsFromEveryCatchClause = new FlowState(count);
+        specifiedByExitsFromEveryCatchClause.set();
         for (Tree.CatchClause cc: that.getCatchClauses()) {
             d = beginDeclarationScope();
             as = beginSpecificationScope();
             cc.visit(this);
-            definitelyAssignedByEveryCatchClause = definitelyAssignedByEveryCatchClause && (specified.definitely || specified.exited);
-            possiblyAssignedBySomeCatchClause = possiblyAssignedBySomeCatchClause || specified.possibly;
-            possiblyExitedFromSomeCatchClause = possiblyExitedFromSomeCatchClause || specified.exited;
-            specifiedByExitsFromEveryCatchClause = specifiedByExitsFromEveryCatchClause && specified.byExits;
-            endDeclarationScope(d);
+            definitelyAssignedByEveryCatchClause.and(definitelyOrExited());
+            possiblyAssignedBySomeCatchClause.or(possibly);
+            possiblyExitedFromSomeCatchClause.or(exited);
+            specifiedByExitsFromEveryCatchClause.and(byExits);
             endSpecificationScope(as);
+            endDeclarationScope(d);
         }
-        specified.possibly = specified.possibly || possiblyAssignedBySomeCatchClause;
-        specified.exited = specified.exited || possiblyExitedFromSomeCatchClause;
-        
-        boolean definitelyAssignedByFinallyClause;
-        boolean possiblyAssignedByFinallyClause;
-        boolean possiblyExitedFromFinallyClause;
-        boolean specifiedByExitsFromFinallyClause;
+        possibly.or(possiblyAssignedBySomeCatchClause);
+        exited.or(possiblyExitedFromSomeCatchClause);
+
+        FlowState definitelyAssignedByFinallyClause;
+        FlowState possiblyAssignedByFinallyClause;
+        FlowState possiblyExitedFromFinallyClause;
+        FlowState specifiedByExitsFromFinallyClause;
         Tree.FinallyClause finallyClause = that.getFinallyClause();
         if (finallyClause!=null) {
             d = beginDeclarationScope();
             as = beginSpecificationScope();
             finallyClause.visit(this);
-            definitelyAssignedByFinallyClause = specified.definitely || specified.exited;
-            possiblyAssignedByFinallyClause = specified.possibly;
-            possiblyExitedFromFinallyClause = specified.exited;
-            specifiedByExitsFromFinallyClause = specified.byExits;
-            endDeclarationScope(d);
+            definitelyAssignedByFinallyClause = definitelyOrExited();
+            possiblyAssignedByFinallyClause = possibly.copy();
+            possiblyExitedFromFinallyClause = exited.copy();
+            specifiedByExitsFromFinallyClause = byExits.copy();
             endSpecificationScope(as);
+            endDeclarationScope(d);
         }
         else {
-            definitelyAssignedByFinallyClause = false;
-            possiblyAssignedByFinallyClause = false;
-            possiblyExitedFromFinallyClause = false;
-            specifiedByExitsFromFinallyClause = true;
-        }
-        specified.possibly = specified.possibly || possiblyAssignedByFinallyClause;
-        specified.definitely = specified.definitely || definitelyAssignedByFinallyClause
-                || (definitelyAssignedByTryClause && definitelyAssignedByEveryCatchClause);
-        specified.exited = specified.exited || possiblyExitedFromFinallyClause;
-        specified.byExits = specified.byExits ||  specifiedByExitsFromFinallyClause || 
-                (specifiedByExitsFromEveryCatchClause && specifiedByExitsFromTryClause);
-        
+            definitelyAssignedByFinallyClause = new FlowState(count);
+            possiblyAssignedByFinallyClause = new FlowState(count);
+            possiblyExitedFromFinallyClause = new FlowState(count);
+            specifiedByExitsFromFinallyClause = new FlowState(count);
+            specifiedByExitsFromFinallyClause.set();
+        }
+        possibly.or(possiblyAssignedByFinallyClause);
+        definitelyAssignedByTryClause.and(definitelyAssignedByEveryCatchClause);
+        definitely.or(definitelyAssignedByTryClause);
+        definitely.or(definitelyAssignedByFinallyClause);
+        exited.or(possiblyExitedFromFinallyClause);
+        specifiedByExitsFromTryClause.and(specifiedByExitsFromEveryCatchClause);
+        byExits.or(specifiedByExitsFromTryClause);
+        byExits.or(specifiedByExitsFromFinallyClause);
+
         checkDeclarationSection(that);
     }
-    
+
     @Override
     public void visit(Tree.SwitchStatement that) {
         if (that==lastContinueStatement) {
             lastContinueStatement=null;
         }
-        
+
         Tree.SwitchClause switchClause = that.getSwitchClause();
         if (switchClause!=null) {
             switchClause.visit(this);
         }
-        boolean definitelyAssignedByEveryCaseClause = true;
-        boolean possiblyAssignedBySomeCaseClause = false;
-        boolean possiblyExitedFromSomeCaseClause = false;
-        boolean specifiedByExitsFromEveryCaseClause = true; 
-        
+        FlowState definitelyAssignedByEveryCaseClause = new FlowState(count);
+        definitelyAssignedByEveryCaseClause.set();
+        FlowState possiblyAssignedBySomeCaseClause = new FlowState(count);
+        FlowState possiblyExitedFromSomeCaseClause = new FlowState(count);
+        FlowState specifiedByExitsFromEveryCaseClause = new FlowState(count);
+        specifiedByExitsFromEveryCaseClause.set();
+
         Tree.SwitchCaseList switchCaseList = that.getSwitchCaseList();
         for (Tree.CaseClause cc: switchCaseList.getCaseClauses()) {
-            boolean d = beginDeclarationScope();
-            SpecificationState as = beginSpecificationScope();
+            int d = beginDeclarationScope();
+            int as = beginSpecificationScope();
             cc.visit(this);
-            definitelyAssignedByEveryCaseClause = definitelyAssignedByEveryCaseClause && (specified.definitely || specified.exited);
-            possiblyAssignedBySomeCaseClause = possiblyAssignedBySomeCaseClause || specified.possibly;
-            possiblyExitedFromSomeCaseClause = possiblyExitedFromSomeCaseClause || specified.exited;
-            specifiedByExitsFromEveryCaseClause = specifiedByExitsFromEveryCaseClause && specified.byExits;
-            endDeclarationScope(d);
+            definitelyAssignedByEveryCaseClause.and(definitelyOrExited());
+            possiblyAssignedBySomeCaseClause.or(possibly);
+            possiblyExitedFromSomeCaseClause.or(exited);
+            specifiedByExitsFromEveryCaseClause.and(byExits);
             endSpecificationScope(as);
+            endDeclarationScope(d);
         }
-        
+
         Tree.ElseClause elseClause = switchCaseList.getElseClause();
         if (elseClause!=null) {
-            boolean d = beginDeclarationScope();
-            SpecificationState as = beginSpecificationScope();
+            int d = beginDeclarationScope();
+            int as = beginSpecificationScope();
             elseClause.visit(this);
-            definitelyAssignedByEveryCaseClause = definitelyAssignedByEveryCaseClause && (specified.definitely || specified.exited);
-            possiblyAssignedBySomeCaseClause = possiblyAssignedBySomeCaseClause || specified.possibly;
-            possiblyExitedFromSomeCaseClause = possiblyExitedFromSomeCaseClause || specified.exited;
-            specifiedByExitsFromEveryCaseClause = specifiedByExitsFromEveryCaseClause && specified.byExits;
-            endDeclarationScope(d);
+            definitelyAssignedByEveryCaseClause.and(definitelyOrExited());
+            possiblyAssignedBySomeCaseClause.or(possibly);
+            possiblyExitedFromSomeCaseClause.or(exited);
+            specifiedByExitsFromEveryCaseClause.and(byExits);
             endSpecificationScope(as);
+            endDeclarationScope(d);
         }
 
-        specified.possibly = specified.possibly || possiblyAssignedBySomeCaseClause;
-        specified.definitely = specified.definitely || definitelyAssignedByEveryCaseClause;
-        specified.exited = specified.exited || possiblyExitedFromSomeCaseClause;
-        specified.byExits = specified.byExits && specifiedByExitsFromEveryCaseClause;
-        
+        possibly.or(possiblyAssignedBySomeCaseClause);
+        definitely.or(definitelyAssignedByEveryCaseClause);
+        exited.or(possiblyExitedFromSomeCaseClause);
+        byExits.and(specifiedByExitsFromEveryCaseClause);
+
         checkDeclarationSection(that);
     }
-    
+
     @Override
     public void visit(Tree.WhileStatement that) {
     	Tree.WhileClause whileClause = that.getWhileClause();
@@ -1190,35 +1426,34 @@ public class SpecificationVisitor extends Visitor {
     			cl.visit(this);
     		}
     	}
-    	
-        boolean d = beginDeclarationScope();
-        SpecificationState as = beginSpecificationScope();
+
+        int d = beginDeclarationScope();
+        int as = beginSpecificationScope();
         Tree.Block block = whileClause.getBlock();
         if (block!=null) {
-            if (isVariable() || isLate()) {
-                block.visit(this);
-            }
-            else {
-                boolean c = inLoop;
-                inLoop = true;
-                block.visit(this);
-                inLoop = c;
-            }
-        }
-        boolean possiblyAssignedByWhileClause = specified.possibly;
-        boolean definitelyAssignedByWhileClause = specified.definitely;
-        
-        endDeclarationScope(d);
+            //a variable or late declaration may be
+            //specified in a loop
+            int c = scopes.push(inLoop);
+            inLoop.or(constant);
+            block.visit(this);
+            scopes.pop(c, inLoop);
+        }
+        FlowState possiblyAssignedByWhileClause = possibly.copy();
+        FlowState definitelyAssignedByWhileClause = definitely.copy();
+
         endSpecificationScope(as);
-        
-        specified.definitely = specified.definitely || (definitelyAssignedByWhileClause && 
-                 isAlwaysSatisfied(whileClause.getConditionList()));
-        specified.possibly = specified.possibly || (possiblyAssignedByWhileClause && 
-                 !isNeverSatisfied(whileClause.getConditionList()));
-        
+        endDeclarationScope(d);
+
+        if (isAlwaysSatisfied(whileClause.getConditionList())) {
+            definitely.or(definitelyAssignedByWhileClause);
+        }
+        if (!isNeverSatisfied(whileClause.getConditionList())) {
+            possibly.or(possiblyAssignedByWhileClause);
+        }
+
         checkDeclarationSection(that);
     }
-    
+
     /*@Override
     public void visit(Tree.DoClause that) {
         if (isVariable()) {
@@ -1237,49 +1472,50 @@ public class SpecificationVisitor extends Visitor {
 
     @Override
     public void visit(Tree.ForStatement that) {
-        boolean d = beginDeclarationScope();
-        SpecificationState as = beginSpecificationScope();
+        int d = beginDeclarationScope();
+        int as = beginSpecificationScope();
         boolean atLeastOneIteration = false;
         Tree.ForClause forClause = that.getForClause();
         if (forClause!=null) {
-            if (isVariable() || isLate()) {
-                forClause.visit(this);
-            }
-            else {
-                boolean c = inLoop;
-                inLoop = true;
-                forClause.visit(this);
-                inLoop = c;
-            }
+            int c = scopes.push(inLoop);
+            inLoop.or(constant);
+            forClause.visit(this);
+            scopes.pop(c, inLoop);
             atLeastOneIteration = isAtLeastOne(forClause);
         }
-        boolean possiblyExitedFromForClause = specified.exited && !specified.byExits;
-        boolean possiblyAssignedByForClause = specified.possibly;
+        FlowState possiblyExitedFromForClause = exited.copy();
+        possiblyExitedFromForClause.andNot(byExits);
+        FlowState possiblyAssignedByForClause = possibly.copy();
 
-        endDeclarationScope(d);
         endSpecificationScope(as);
+        endDeclarationScope(d);
 
-        boolean definitelyAssignedByElseClause;
-        boolean possiblyAssignedByElseClause;
+        FlowState definitelyAssignedByElseClause;
+        FlowState possiblyAssignedByElseClause;
         Tree.ElseClause elseClause = that.getElseClause();
         if (elseClause!=null) {
             d = beginDeclarationScope();
             as = beginSpecificationScope();
             elseClause.visit(this);
-            definitelyAssignedByElseClause = specified.definitely || specified.exited;
-            possiblyAssignedByElseClause = specified.possibly;
-            endDeclarationScope(d);
+            definitelyAssignedByElseClause = definitelyOrExited();
+            possiblyAssignedByElseClause = possibly.copy();
             endSpecificationScope(as);
+            endDeclarationScope(d);
         }
         else {
-            definitelyAssignedByElseClause = false;
-            possiblyAssignedByElseClause = false;
+            definitelyAssignedByElseClause = new FlowState(count);
+            possiblyAssignedByElseClause = new FlowState(count);
         }
-        
-        specified.definitely = specified.definitely || (!possiblyExitedFromForClause && (definitelyAssignedByElseClause|atLeastOneIteration));
-        specified.possibly = specified.possibly || possiblyAssignedByForClause || possiblyAssignedByElseClause;
-        
+
+        if (atLeastOneIteration) {
+            definitelyAssignedByElseClause.set();
+        }
+        definitelyAssignedByElseClause.andNot(possiblyExitedFromForClause);
+        definitely.or(definitelyAssignedByElseClause);
+        possibly.or(possiblyAssignedByForClause);
+        possibly.or(possiblyAssignedByElseClause);
+
         checkDeclarationSection(that);
     }
-      
+
 }
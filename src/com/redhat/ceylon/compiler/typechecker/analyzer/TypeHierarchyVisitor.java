@@ -9,6 +9,7 @@ import static com.redhat.ceylon.compiler.typechecker.model.Util.isTypeUnknown;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -39,7 +40,86 @@ import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
  */
 public class TypeHierarchyVisitor extends Visitor {
 
-    private final Map<TypeDeclaration,Type> types = new HashMap<TypeDeclaration, Type>();
+    private final Cache cache;
+    
+    public TypeHierarchyVisitor() {
+        this(new Cache());
+    }
+    
+    /**
+     * @param cache the member metadata and linearizations 
+     *        of type declarations, which may be shared with 
+     *        the visitors of other units
+     */
+    public TypeHierarchyVisitor(Cache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     * The member metadata and the linearization of each
+     * type declaration, built by the visitors of every unit
+     * which share the cache, since most classes inherit the
+     * same supertypes. Everything in the cache is discarded 
+     * when the members or supertypes of any type declaration
+     * change.
+     */
+    public static final class Cache {
+        
+        private long generation;
+        private final Map<TypeDeclaration,Type> types = 
+                new IdentityHashMap<TypeDeclaration,Type>();
+        private final Map<TypeDeclaration,List<Type>> linearizations = 
+                new IdentityHashMap<TypeDeclaration,List<Type>>();
+        
+        private void validate(long currentGeneration) {
+            if (generation!=currentGeneration) {
+                types.clear();
+                linearizations.clear();
+                generation = currentGeneration;
+            }
+        }
+        
+        synchronized Type getType(TypeDeclaration declaration, 
+                long currentGeneration) {
+            validate(currentGeneration);
+            return types.get(declaration);
+        }
+        
+        /**
+         * Add the given type, built at the given generation, 
+         * unless the cache already has one.
+         * 
+         * @return the type in the cache
+         */
+        synchronized Type putType(TypeDeclaration declaration, 
+                Type type, long currentGeneration) {
+            validate(currentGeneration);
+            Type result = types.get(declaration);
+            if (result==null) {
+                types.put(declaration, type);
+                result = type;
+            }
+            return result;
+        }
+        
+        synchronized List<Type> getLinearization(TypeDeclaration declaration, 
+                long currentGeneration) {
+            validate(currentGeneration);
+            return linearizations.get(declaration);
+        }
+        
+        synchronized void putLinearization(TypeDeclaration declaration, 
+                List<Type> linearization, long currentGeneration) {
+            validate(currentGeneration);
+            linearizations.put(declaration, linearization);
+        }
+        
+        public synchronized void clear() {
+            types.clear();
+            linearizations.clear();
+        }
+        
+    }
 
     private static final class Type {
         public Map<String,Members> membersByName = new HashMap<String, Members>();
@@ -426,6 +506,18 @@ public class TypeHierarchyVisitor extends Visitor {
     //sort type hierarchy from most abstract to most concrete
     private List<Type> sortDAGAndBuildMetadata(TypeDeclaration declaration, 
             Node errorReporter) {
+        long generation = declaration.getMemberGeneration();
+        List<Type> sortedDag = 
+                cache.getLinearization(declaration, generation);
+        if (sortedDag==null) {
+            sortedDag = sortDAG(declaration, errorReporter);
+            cache.putLinearization(declaration, sortedDag, generation);
+        }
+        return sortedDag;
+    }
+    
+    private List<Type> sortDAG(TypeDeclaration declaration, 
+            Node errorReporter) {
         //Apply a partial sort on the class hierarchy which is a Directed Acyclic Graph (DAG)
         // with subclasses pointing to superclasses or interfaces
         //use depth-first plus a stack fo processed nodes to detect non DAG
@@ -500,7 +592,8 @@ public class TypeHierarchyVisitor extends Visitor {
     }*/
 
     private Type getOrBuildType(TypeDeclaration declaration) {
-        Type type = types.get(declaration);
+        long generation = declaration.getMemberGeneration();
+        Type type = cache.getType(declaration, generation);
         if (type == null) {
             type = new Type();
             type.declaration = declaration;
@@ -540,7 +633,7 @@ public class TypeHierarchyVisitor extends Visitor {
                     members.shared.add(member);
                 }
             }
-            types.put(declaration,type);
+            type = cache.putType(declaration, type, generation);
         }
         return type;
     }
@@ -4,7 +4,6 @@ import static com.redhat.ceylon.compiler.typechecker.model.Util.isTypeUnknown;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +16,7 @@ import com.redhat.ceylon.compiler.typechecker.model.ProducedReference;
 import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
 import com.redhat.ceylon.compiler.typechecker.model.Scope;
 import com.redhat.ceylon.compiler.typechecker.model.TypeAlias;
+import com.redhat.ceylon.compiler.typechecker.model.TypeArgumentMap;
 import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
 import com.redhat.ceylon.compiler.typechecker.model.TypeParameter;
 import com.redhat.ceylon.compiler.typechecker.model.TypedDeclaration;
@@ -86,7 +86,7 @@ public class Util {
             List<ProducedType> typeArguments = 
                     new ArrayList<ProducedType>(typeParameters.size());
             Map<TypeParameter, ProducedType> typeArgMap = 
-                    new HashMap<TypeParameter, ProducedType>();
+                    new TypeArgumentMap(typeParameters.size());
             if (qt!=null) {
                 typeArgMap.putAll(qt.getTypeArguments());
             }
@@ -1,6 +1,7 @@
 package com.redhat.ceylon.compiler.typechecker.context;
 
 import com.redhat.ceylon.cmr.api.RepositoryManager;
+import com.redhat.ceylon.compiler.typechecker.analyzer.TypeHierarchyVisitor;
 import com.redhat.ceylon.compiler.typechecker.io.VFS;
 import com.redhat.ceylon.compiler.typechecker.model.Modules;
 
@@ -14,6 +15,8 @@ public class Context {
     private Modules modules;
     private VFS vfs;
     private RepositoryManager repositoryManager;
+    private final TypeHierarchyVisitor.Cache typeHierarchyCache = 
+            new TypeHierarchyVisitor.Cache();
 
     public Context(RepositoryManager repositoryManager, VFS vfs) {
         this.vfs = vfs;
@@ -35,4 +38,13 @@ public class Context {
     public VFS getVfs() {
         return vfs;
     }
+
+    /**
+     * The member metadata and linearizations of the type 
+     * declarations, shared by the flow analysis of every
+     * unit.
+     */
+    public TypeHierarchyVisitor.Cache getTypeHierarchyCache() {
+        return typeHierarchyCache;
+    }
 }
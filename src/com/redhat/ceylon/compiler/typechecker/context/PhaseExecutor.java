@@ -0,0 +1,174 @@
+package com.redhat.ceylon.compiler.typechecker.context;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+
+/**
+ * Runs a type checking phase over a list of phased units,
+ * either sequentially, or across a fork-join pool with a
+ * barrier at the end of the phase.
+ *
+ * The thread-local state of the type checker (the
+ * {@link ProducedTypeCache} switch and the recursion
+ * {@link ProducedType#depth}) is propagated to the worker
+ * threads, so that each unit sees exactly the state it
+ * would see in a sequential run.
+ */
+public class PhaseExecutor {
+
+    /**
+     * A type checking phase applied to a single unit.
+     */
+    public static abstract class Phase {
+        public abstract void run(PhasedUnit pu);
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism the number of worker threads,
+     *        or 1 to run every phase in the calling thread
+     */
+    public PhaseExecutor(int parallelism) {
+        pool = parallelism>1 ?
+                new ForkJoinPool(parallelism) : null;
+    }
+
+    public boolean isParallel() {
+        return pool!=null;
+    }
+
+    /**
+     * Run the phase for each unit, in order, in the
+     * calling thread. For phases which mutate parts of
+     * the model that are visible to other units, and
+     * thus depend upon the order of the units.
+     */
+    public void runSequentially(List<? extends PhasedUnit> units,
+            Phase phase) {
+        for (PhasedUnit pu: units) {
+            phase.run(pu);
+        }
+    }
+
+    /**
+     * Run the phase concurrently for the units of different
+     * packages, and sequentially, in order, for the units
+     * of the same package. For phases which only mutate the
+     * model of the package of the unit, for example, by
+     * adding toplevel declarations.
+     */
+    public void runInParallelPerPackage(List<? extends PhasedUnit> units,
+            Phase phase) {
+        if (pool==null) {
+            runSequentially(units, phase);
+        }
+        else {
+            Map<Package,List<PhasedUnit>> groups =
+                    new LinkedHashMap<Package,List<PhasedUnit>>();
+            List<PhasedUnit> last = null;
+            for (PhasedUnit pu: units) {
+                List<PhasedUnit> group = groups.get(pu.getPackage());
+                if (group==null) {
+                    group = new ArrayList<PhasedUnit>();
+                    groups.put(pu.getPackage(), group);
+                }
+                group.add(pu);
+                last = group;
+            }
+            List<List<? extends PhasedUnit>> list =
+                    new ArrayList<List<? extends PhasedUnit>>(groups.values());
+            runGroups(list, list.indexOf(last), phase);
+        }
+    }
+
+    private void runGroups(List<List<? extends PhasedUnit>> groups,
+            int lastGroup, final Phase phase) {
+        final Boolean cachingEnabled = ProducedTypeCache.isEnabled();
+        final Integer initialDepth = ProducedType.depth.get();
+        final Integer[] finalDepths = new Integer[groups.size()];
+        List<Callable<Void>> tasks =
+                new ArrayList<Callable<Void>>(groups.size());
+        for (int i=0; i<groups.size(); i++) {
+            final int index = i;
+            final List<? extends PhasedUnit> group = groups.get(i);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Boolean enabled =
+                            ProducedTypeCache.setEnabled(cachingEnabled);
+                    Integer depth = ProducedType.depth.get();
+                    ProducedType.depth.set(initialDepth);
+                    try {
+                        runSequentially(group, phase);
+                        finalDepths[index] = ProducedType.depth.get();
+                    }
+                    finally {
+                        ProducedType.depth.set(depth);
+                        ProducedTypeCache.setEnabled(enabled);
+                    }
+                    return null;
+                }
+            });
+        }
+        //the barrier: invokeAll() waits for every task
+        for (Future<Void> future: pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while type checking", e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                else {
+                    throw new RuntimeException(cause);
+                }
+            }
+        }
+        //leave the calling thread in the state it would
+        //be in had it run the last unit itself
+        if (lastGroup>=0) {
+            ProducedType.depth.set(finalDepths[lastGroup]);
+        }
+    }
+
+    /**
+     * A scheduler which runs the remaining phases of each
+     * unit as soon as the units it depends upon are ready,
+     * using the same worker threads. Only for an executor
+     * which {@link #isParallel() is parallel}.
+     */
+    public UnitScheduler createScheduler() {
+        if (pool==null) {
+            throw new IllegalStateException("the executor is not parallel");
+        }
+        return new UnitScheduler(pool);
+    }
+
+    /**
+     * Release the worker threads.
+     */
+    public void shutdown() {
+        if (pool!=null) {
+            pool.shutdown();
+        }
+    }
+
+}
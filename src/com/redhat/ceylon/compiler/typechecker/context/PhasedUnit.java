@@ -1,6 +1,7 @@
 package com.redhat.ceylon.compiler.typechecker.context;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.antlr.runtime.CommonToken;
@@ -10,6 +11,7 @@ import com.redhat.ceylon.compiler.typechecker.analyzer.AnnotationVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ControlFlowVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.DeclarationVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ExpressionVisitor;
+import com.redhat.ceylon.compiler.typechecker.analyzer.FlowErrors;
 import com.redhat.ceylon.compiler.typechecker.analyzer.LiteralVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.LocalDeclarationVisitor;
 import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
@@ -29,6 +31,9 @@ import com.redhat.ceylon.compiler.typechecker.model.Package;
 import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
 import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
 import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.tree.DetachedMessage;
+import com.redhat.ceylon.compiler.typechecker.tree.Message;
+import com.redhat.ceylon.compiler.typechecker.tree.Node;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree.ImportPath;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree.ModuleDescriptor;
@@ -71,6 +76,8 @@ public class PhasedUnit {
     private boolean usageAnalyzed = false;
     private boolean literalsProcessed = false;
     private boolean moduleVisited = false;
+    //the errors of the tree, once it has been released
+    private List<Message> releasedErrors;
 
     public VirtualFile getSrcDir() {
         return srcDir;
@@ -115,6 +122,7 @@ public class PhasedUnit {
         this.refinementValidated = other.refinementValidated;
         this.fullyTyped = other.fullyTyped;
         this.flowAnalyzed = other.flowAnalyzed;
+        this.releasedErrors = other.releasedErrors;
     }
 
     @Deprecated
@@ -332,6 +340,7 @@ public class PhasedUnit {
         Boolean enabled = ProducedTypeCache.setEnabled(true);
         try {
             if (!fullyTyped) {
+                checkTreeNotReleased();
                 ProducedType.depth.set(-100);
                 //System.out.println("Run analysis phase for " + fileName);
                 compilationUnit.visit(new ExpressionVisitor());
@@ -347,15 +356,28 @@ public class PhasedUnit {
     
     public synchronized void analyseFlow() {
         if (!flowAnalyzed) {
-            compilationUnit.visit(new TypeHierarchyVisitor());
+            checkTreeNotReleased();
+            ModuleManager moduleManager = moduleManagerRef.get();
+            Context context = moduleManager==null ? 
+                    null : moduleManager.getContext();
+            compilationUnit.visit(context==null ? 
+                    new TypeHierarchyVisitor() : 
+                    new TypeHierarchyVisitor(context.getTypeHierarchyCache()));
             //System.out.println("Validate control flow for " + fileName);
             compilationUnit.visit(new ControlFlowVisitor());
             //System.out.println("Validate self references for " + fileName);
             //System.out.println("Validate specification for " + fileName);
-            for (Declaration d: unit.getDeclarations()) {
-                compilationUnit.visit(new SpecificationVisitor(d));
-                if (d instanceof TypeDeclaration) {
-                    compilationUnit.visit(new SelfReferenceVisitor((TypeDeclaration) d));
+            FlowErrors errors = new FlowErrors(unit.getDeclarations());
+            compilationUnit.visit(new SpecificationVisitor(errors));
+            compilationUnit.visit(new SelfReferenceVisitor(errors));
+            if (!errors.report()) {
+                //check the declarations one at a time, to
+                //report the exception on the right node
+                for (Declaration d: unit.getDeclarations()) {
+                    compilationUnit.visit(new SpecificationVisitor(d));
+                    if (d instanceof TypeDeclaration) {
+                        compilationUnit.visit(new SelfReferenceVisitor((TypeDeclaration) d));
+                    }
                 }
             }
             flowAnalyzed = true;
@@ -364,6 +386,7 @@ public class PhasedUnit {
 
     public synchronized void analyseUsage() {
         if (! usageAnalyzed) {
+            checkTreeNotReleased();
             ReferenceCounter rc = new ReferenceCounter();
             compilationUnit.visit(rc);
             compilationUnit.visit(new UsageVisitor(rc));
@@ -372,12 +395,71 @@ public class PhasedUnit {
         }
     }
 
+    /**
+     * Discard the syntax tree and tokens of this unit, and
+     * the errors attached to the nodes of the tree, keeping
+     * just its model, and a copy of the errors, which may
+     * be obtained from {@link #getReleasedErrors()}. For
+     * the units of dependencies, whose model is needed by
+     * the units being type checked, but whose tree is not
+     * needed once the last phase they are subject to has
+     * been run.
+     * 
+     * A unit whose tree has been released may not be 
+     * subjected to any further phase, and no longer 
+     * records its unresolved references.
+     */
+    public synchronized void releaseTree() {
+        if (compilationUnit!=null) {
+            final List<Message> errors = new ArrayList<Message>();
+            compilationUnit.visit(new Visitor() {
+                @Override
+                public void visitAny(Node that) {
+                    for (Message error: that.getErrors()) {
+                        errors.add(new DetachedMessage(error));
+                    }
+                    super.visitAny(that);
+                }
+            });
+            releasedErrors = errors;
+            compilationUnit = null;
+            tokens = null;
+            moduleVisitor = null;
+            //these are identifier nodes of the tree
+            if (unit!=null) {
+                unit.getUnresolvedReferences().clear();
+            }
+        }
+    }
+    
+    public boolean isTreeReleased() {
+        return releasedErrors!=null;
+    }
+    
+    /**
+     * The errors which were attached to the nodes of the
+     * tree of this unit when it was released, or null if 
+     * the tree has not been released.
+     */
+    public List<Message> getReleasedErrors() {
+        return releasedErrors;
+    }
+    
+    private void checkTreeNotReleased() {
+        if (releasedErrors!=null) {
+            throw new IllegalStateException("syntax tree has been released: " + 
+                    unitFile.getPath());
+        }
+    }
+
     public void generateStatistics(StatisticsVisitor statsVisitor) {
+        checkTreeNotReleased();
         compilationUnit.visit(statsVisitor);
     }
     
     public void runAssertions(AssertionVisitor av) {
         //System.out.println("Running assertions for " + fileName);
+        checkTreeNotReleased();
         compilationUnit.visit(av);
     }
 
@@ -420,10 +502,18 @@ public class PhasedUnit {
         return sb.toString();
     }
 
+    /**
+     * The syntax tree of this unit, or null if it has been
+     * released.
+     */
     public Tree.CompilationUnit getCompilationUnit() {
         return compilationUnit;
     }
 
+    /**
+     * The tokens of this unit, or null if they have been
+     * released along with the syntax tree.
+     */
     public List<CommonToken> getTokens() {
         return tokens;
     }
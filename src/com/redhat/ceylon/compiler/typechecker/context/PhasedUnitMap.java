@@ -36,6 +36,27 @@ public abstract class PhasedUnitMap<ReturnedType extends PhasedUnit, StoredType>
         phasedUnitPerPath.remove(path);
     }
 
+    /**
+     * Put the units with the given paths first, in the
+     * given order, followed by any other units, in their
+     * current order.
+     */
+    public void sortPhasedUnits(List<String> paths) {
+        Map<String, StoredType> sorted = new LinkedHashMap<String, StoredType>();
+        for (String path: paths) {
+            StoredType storedValue = phasedUnitPerPath.get(path);
+            if (storedValue != null) {
+                sorted.put(path, storedValue);
+            }
+        }
+        for (Entry<String, StoredType> entry : phasedUnitPerPath.entrySet()) {
+            if (!sorted.containsKey(entry.getKey())) {
+                sorted.put(entry.getKey(), entry.getValue());
+            }
+        }
+        phasedUnitPerPath = sorted;
+    }
+
     protected void addInReturnedList(List<ReturnedType> list, ReturnedType phasedUnit) {
         list.add(phasedUnit);
     }
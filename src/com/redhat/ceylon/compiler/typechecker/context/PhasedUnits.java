@@ -1,19 +1,28 @@
 package com.redhat.ceylon.compiler.typechecker.context;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.antlr.runtime.ANTLRInputStream;
+import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.CommonTokenStream;
 
 import com.redhat.ceylon.compiler.typechecker.analyzer.ModuleManager;
+import com.redhat.ceylon.compiler.typechecker.io.CharStreamVirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
 import com.redhat.ceylon.compiler.typechecker.model.Package;
 import com.redhat.ceylon.compiler.typechecker.parser.CeylonLexer;
 import com.redhat.ceylon.compiler.typechecker.parser.CeylonParser;
 import com.redhat.ceylon.compiler.typechecker.parser.LexError;
+import com.redhat.ceylon.compiler.typechecker.parser.PackedTokenList;
 import com.redhat.ceylon.compiler.typechecker.parser.ParseError;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree;
 import com.redhat.ceylon.compiler.typechecker.util.ModuleManagerFactory;
@@ -28,6 +37,11 @@ public class PhasedUnits extends PhasedUnitMap<PhasedUnit, PhasedUnit> {
     private final ModuleManager moduleManager;
     private List<String> moduleFilters;
     private String encoding;
+    private int parallelism = 1;
+    //the source files being lexed and parsed concurrently
+    //while parseUnits() walks the source directories, by
+    //path, or null
+    private Map<String,Future<ParsedFile>> prefetchedFiles;
 
     public PhasedUnits(Context context) {
         this.context = context;
@@ -54,8 +68,73 @@ public class PhasedUnits extends PhasedUnitMap<PhasedUnit, PhasedUnit> {
     }
 
     public void parseUnits(List<VirtualFile> srcDirectories) {
+        //module filters may exclude most of the files, 
+        //which would then be parsed for nothing
+        if (parallelism>1 && 
+                (moduleFilters==null || moduleFilters.isEmpty())) {
+            //start lexing and parsing every source file, 
+            //then walk the directories as usual, so that 
+            //parseFile() picks up the parsed files in order
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            prefetchedFiles = new HashMap<String,Future<ParsedFile>>();
+            try {
+                for (VirtualFile file : srcDirectories) {
+                    prefetch(file, pool);
+                }
+                for (VirtualFile file : srcDirectories) {
+                    parseUnit(file, file);
+                }
+            }
+            finally {
+                prefetchedFiles = null;
+                pool.shutdownNow();
+            }
+        }
+        else {
+            for (VirtualFile file : srcDirectories) {
+                parseUnit(file, file);
+            }
+        }
+    }
+
+    /**
+     * The paths of the source files in the given source
+     * directories, in the order in which 
+     * {@link #parseUnits(List)} parses them.
+     */
+    public List<String> getSourceFilePaths(List<VirtualFile> srcDirectories) {
+        List<String> paths = new ArrayList<String>();
         for (VirtualFile file : srcDirectories) {
-            parseUnit(file, file);
+            addSourceFilePaths(file, paths);
+        }
+        return paths;
+    }
+
+    private static void addSourceFilePaths(VirtualFile file, List<String> paths) {
+        if (file.isFolder()) {
+            for (VirtualFile subfile : file.getChildren()) {
+                addSourceFilePaths(subfile, paths);
+            }
+        }
+        else if (file.getName().endsWith(".ceylon")) {
+            paths.add(file.getPath());
+        }
+    }
+
+    private void prefetch(final VirtualFile file, ForkJoinPool pool) {
+        if (file.isFolder()) {
+            for (VirtualFile subfile : file.getChildren()) {
+                prefetch(subfile, pool);
+            }
+        }
+        else if (file.getName().endsWith(".ceylon")) {
+            prefetchedFiles.put(file.getPath(), 
+                    pool.submit(new Callable<ParsedFile>() {
+                @Override
+                public ParsedFile call() throws Exception {
+                    return lexAndParse(file, getEncoding());
+                }
+            }));
         }
     }
 
@@ -86,35 +165,118 @@ public class PhasedUnits extends PhasedUnitMap<PhasedUnit, PhasedUnit> {
         }
     }
 
+    /**
+     * Parse a single source file belonging to the given
+     * package, for example, to replace a unit that has
+     * been removed because the file changed.
+     */
+    public void parseUnit(VirtualFile file, VirtualFile srcDir, Package pkg) {
+        try {
+            addParsedFile(file, srcDir, pkg, lexAndParse(file));
+        }
+        catch (RuntimeException e) {
+            //let it go
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Error while parsing the source file: " + file.toString(), e);
+        }
+    }
+
     protected void parseFile(VirtualFile file, VirtualFile srcDir) throws Exception {
         if (file.getName().endsWith(".ceylon")) {
 
             //System.out.println("Parsing " + file.getName());
-            CeylonLexer lexer = new CeylonLexer(new ANTLRInputStream(file.getInputStream(), getEncoding()));
-            CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-            CeylonParser parser = new CeylonParser(tokenStream);
-            Tree.CompilationUnit cu = parser.compilationUnit();
-            List<CommonToken> tokens = new ArrayList<CommonToken>(tokenStream.getTokens().size()); 
-            tokens.addAll(tokenStream.getTokens());
-            PhasedUnit phasedUnit = new PhasedUnit(file, srcDir, cu, 
-                    moduleManager.getCurrentPackage(), moduleManager,
-                    context, tokens);
-            addPhasedUnit(file, phasedUnit);
+            addParsedFile(file, srcDir, moduleManager.getCurrentPackage(), 
+                    lexAndParse(file));
 
-            List<LexError> lexerErrors = lexer.getErrors();
-            for (LexError le : lexerErrors) {
-                //System.out.println("Lexer error in " + file.getName() + ": " + le.getMessage());
-                cu.addLexError(le);
-            }
-            lexerErrors.clear();
+        }
+    }
 
-            List<ParseError> parserErrors = parser.getErrors();
-            for (ParseError pe : parserErrors) {
-                //System.out.println("Parser error in " + file.getName() + ": " + pe.getMessage());
-                cu.addParseError(pe);
+    /**
+     * Lex and parse the given file. Does not touch the
+     * model, so may be called concurrently for distinct
+     * files.
+     */
+    private ParsedFile lexAndParse(VirtualFile file) throws Exception {
+        Future<ParsedFile> prefetched = prefetchedFiles==null ? 
+                null : prefetchedFiles.remove(file.getPath());
+        if (prefetched==null) {
+            return lexAndParse(file, getEncoding());
+        }
+        try {
+            return prefetched.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing the source file: " + file.getPath(), e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error) cause;
             }
-            parserErrors.clear();
+            else {
+                throw new RuntimeException("Error while parsing the source file: " + file.getPath(), cause);
+            }
+        }
+    }
+
+    private static ParsedFile lexAndParse(VirtualFile file, String encoding) 
+            throws Exception {
+        CharStream input;
+        if (file instanceof CharStreamVirtualFile) {
+            input = ((CharStreamVirtualFile) file).getCharStream(encoding);
+        }
+        else {
+            input = new ANTLRInputStream(file.getInputStream(), encoding);
+        }
+        CeylonLexer lexer = new CeylonLexer(input);
+        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+        CeylonParser parser = new CeylonParser(tokenStream);
+        Tree.CompilationUnit cu = parser.compilationUnit();
+        @SuppressWarnings("unchecked")
+        List<CommonToken> tokens = 
+                PackedTokenList.pack(tokenStream.getTokens());
+        return new ParsedFile(cu, tokens, lexer.getErrors(), parser.getErrors());
+    }
+
+    private void addParsedFile(VirtualFile file, VirtualFile srcDir, 
+            Package pkg, ParsedFile parsed) {
+        Tree.CompilationUnit cu = parsed.compilationUnit;
+        PhasedUnit phasedUnit = new PhasedUnit(file, srcDir, cu, 
+                pkg, moduleManager, context, parsed.tokens);
+        addPhasedUnit(file, phasedUnit);
 
+        List<LexError> lexerErrors = parsed.lexErrors;
+        for (LexError le : lexerErrors) {
+            //System.out.println("Lexer error in " + file.getName() + ": " + le.getMessage());
+            cu.addLexError(le);
+        }
+        lexerErrors.clear();
+
+        List<ParseError> parserErrors = parsed.parseErrors;
+        for (ParseError pe : parserErrors) {
+            //System.out.println("Parser error in " + file.getName() + ": " + pe.getMessage());
+            cu.addParseError(pe);
+        }
+        parserErrors.clear();
+    }
+
+    private static class ParsedFile {
+        final Tree.CompilationUnit compilationUnit;
+        final List<CommonToken> tokens;
+        final List<LexError> lexErrors;
+        final List<ParseError> parseErrors;
+        ParsedFile(Tree.CompilationUnit compilationUnit, List<CommonToken> tokens,
+                List<LexError> lexErrors, List<ParseError> parseErrors) {
+            this.compilationUnit = compilationUnit;
+            this.tokens = tokens;
+            this.lexErrors = lexErrors;
+            this.parseErrors = parseErrors;
         }
     }
 
@@ -222,6 +384,14 @@ public class PhasedUnits extends PhasedUnitMap<PhasedUnit, PhasedUnit> {
         this.encoding = encoding;
     }
 
+    /**
+     * The number of threads used to lex and parse the 
+     * source files in {@link #parseUnits(List)}.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     @Override
     protected PhasedUnit toStoredType(PhasedUnit phasedUnit) {
         return phasedUnit;
@@ -1,12 +1,21 @@
 package com.redhat.ceylon.compiler.typechecker.context;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.redhat.ceylon.compiler.typechecker.model.IntersectionType;
 import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
 import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.UnionType;
 import com.redhat.ceylon.compiler.typechecker.model.UnknownType;
 
 public class ProducedTypeCache {
@@ -35,74 +44,486 @@ public class ProducedTypeCache {
     private final static ProducedType NULL_VALUE = new UnknownType(null).getType();
     // need ConcurrentHashMap even for the cache, otherwise get/put/containsKey can get info infinite loops
     // on concurrent operations
-    private final Map<ProducedType, Map<TypeDeclaration, ProducedType>> superTypes = 
-            new ConcurrentHashMap<ProducedType, Map<TypeDeclaration, ProducedType>>();
+    private final ConcurrentHashMap<ProducedType, Supertypes> superTypes = 
+            new ConcurrentHashMap<ProducedType, Supertypes>();
+    // the reverse index: for each declaration, the types whose cached
+    // supertypes involve it, either in the type or the supertype 
+    // declaration
+    private final ConcurrentHashMap<TypeDeclaration, Set<ProducedType>> keysByDeclaration = 
+            new ConcurrentHashMap<TypeDeclaration, Set<ProducedType>>();
+    
+    // the cached supertypes of a type, and the declarations
+    // under which the type is indexed, so that they are only 
+    // collected once per type, and the type can be removed 
+    // from the index when its supertypes are evicted
+    private static final class Supertypes {
+        // need ConcurrentHashMap even for the cache, otherwise get/put/containsKey can get info infinite loops
+        // on concurrent operations
+        final Map<TypeDeclaration, ProducedType> cache = 
+                new ConcurrentHashMap<TypeDeclaration, ProducedType>();
+        final Set<TypeDeclaration> involved = Collections.newSetFromMap(
+                new ConcurrentHashMap<TypeDeclaration, Boolean>());
+    }
+    
+    private static final int DEFAULT_SUBTYPE_CACHE_SIZE = 10000;
+    // the number of independently locked parts of the cache 
+    // of subtyping results, a power of two
+    private static final int SUBTYPE_STRIPES = 16;
+    
+    // the results of isSubtypeOf(), split by the hash of
+    // the key, so that threads checking distinct types do 
+    // not contend for one lock
+    private final SubtypeStripe[] subtypes = new SubtypeStripe[SUBTYPE_STRIPES];
+    private volatile int subtypeCacheSize;
+    
+    // a part of the cache of subtyping results, least 
+    // recently used first
+    private static final class SubtypeStripe 
+            extends LinkedHashMap<SubtypeKey, Boolean> {
+        private static final long serialVersionUID = 1L;
+        int capacity;
+        long hits;
+        long misses;
+        long evictions;
+        SubtypeStripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SubtypeKey, Boolean> eldest) {
+            if (size() > capacity) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+    
+    public ProducedTypeCache() {
+        int capacity = stripeCapacity(DEFAULT_SUBTYPE_CACHE_SIZE);
+        for (int i=0; i<SUBTYPE_STRIPES; i++) {
+            subtypes[i] = new SubtypeStripe(capacity);
+        }
+        subtypeCacheSize = DEFAULT_SUBTYPE_CACHE_SIZE;
+    }
+    
+    /**
+     * Set the maximum number of subtyping results cached, 
+     * or 0 to disable the cache of subtyping results. 
+     * The default is 10000.
+     */
+    public void setSubtypeCacheSize(int size) {
+        int capacity = stripeCapacity(size);
+        for (SubtypeStripe stripe: subtypes) {
+            synchronized (stripe) {
+                stripe.capacity = capacity;
+                Iterator<SubtypeKey> it = stripe.keySet().iterator();
+                while (stripe.size() > capacity) {
+                    it.next();
+                    it.remove();
+                    stripe.evictions++;
+                }
+            }
+        }
+        subtypeCacheSize = size;
+    }
+    
+    private static int stripeCapacity(int size) {
+        return size <= 0 ? 0 : (size + SUBTYPE_STRIPES - 1) / SUBTYPE_STRIPES;
+    }
+    
+    private SubtypeStripe getStripe(SubtypeKey key) {
+        int hash = key.hashCode;
+        hash ^= hash >>> 16;
+        return subtypes[hash & (SUBTYPE_STRIPES - 1)];
+    }
+    
+    private static final class SubtypeKey {
+        final ProducedType subtype;
+        final ProducedType supertype;
+        final int hashCode;
+        // the declarations of both types, collected the
+        // first time the cache is invalidated
+        private Set<TypeDeclaration> involved;
+        SubtypeKey(ProducedType subtype, ProducedType supertype) {
+            this.subtype = subtype;
+            this.supertype = supertype;
+            hashCode = 37 * subtype.hashCode() + supertype.hashCode();
+        }
+        Set<TypeDeclaration> getInvolved() {
+            if (involved == null) {
+                involved = new HashSet<TypeDeclaration>();
+                addDeclarations(involved, subtype);
+                addDeclarations(involved, supertype);
+            }
+            return involved;
+        }
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SubtypeKey)) {
+                return false;
+            }
+            SubtypeKey other = (SubtypeKey) obj;
+            return hashCode == other.hashCode &&
+                    subtype.equals(other.subtype) && 
+                    supertype.equals(other.supertype);
+        }
+    }
+    
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile int lastEvictions;
     
     public boolean containsKey(ProducedType producedType, TypeDeclaration dec) {
-        Map<TypeDeclaration, ProducedType> cache = superTypes.get(producedType);
-        if (cache == null) {
+        Supertypes supertypes = superTypes.get(producedType);
+        if (supertypes == null) {
             return false;
         }
-        return cache.containsKey(dec);
+        return supertypes.cache.containsKey(dec);
     }
 
     public ProducedType get(ProducedType producedType, TypeDeclaration dec) {
-        Map<TypeDeclaration, ProducedType> cache = superTypes.get(producedType);
-        if (cache == null) {
+        Supertypes supertypes = superTypes.get(producedType);
+        if (supertypes == null) {
             return null;
         }
-        ProducedType ret = cache.get(dec);
+        ProducedType ret = supertypes.cache.get(dec);
         return ret == NULL_VALUE ? null : ret;
     }
 
     public void put(ProducedType producedType, TypeDeclaration dec, ProducedType superType) {
-        Map<TypeDeclaration, ProducedType> cache = superTypes.get(producedType);
-        if (cache == null) {
-            // need ConcurrentHashMap even for the cache, otherwise get/put/containsKey can get info infinite loops
-            // on concurrent operations
-            cache = new ConcurrentHashMap<TypeDeclaration, ProducedType>();
-            superTypes.put(producedType, cache);
+        Supertypes supertypes = superTypes.get(producedType);
+        if (supertypes == null) {
+            supertypes = new Supertypes();
+            Supertypes existing = 
+                    superTypes.putIfAbsent(producedType, supertypes);
+            if (existing != null) {
+                //another thread got there first
+                supertypes = existing;
+            }
+            else {
+                Set<TypeDeclaration> involved = new HashSet<TypeDeclaration>();
+                addDeclarations(involved, producedType);
+                index(producedType, supertypes, involved);
+            }
+        }
+        //the supertype is determined by the type and the
+        //supertype declaration, so it only needs to be
+        //evicted when one of their declarations changes
+        if (!supertypes.involved.contains(dec)) {
+            Set<TypeDeclaration> involved = new HashSet<TypeDeclaration>();
+            addDeclaration(involved, dec);
+            index(producedType, supertypes, involved);
+        }
+        supertypes.cache.put(dec, superType == null ? NULL_VALUE : superType);
+    }
+    
+    private void index(ProducedType producedType, Supertypes supertypes, 
+            Set<TypeDeclaration> involved) {
+        for (TypeDeclaration td: involved) {
+            if (supertypes.involved.add(td)) {
+                Set<ProducedType> keys = keysByDeclaration.get(td);
+                if (keys == null) {
+                    keys = Collections.newSetFromMap(
+                            new ConcurrentHashMap<ProducedType, Boolean>());
+                    Set<ProducedType> existing = 
+                            keysByDeclaration.putIfAbsent(td, keys);
+                    if (existing != null) {
+                        keys = existing;
+                    }
+                }
+                keys.add(producedType);
+            }
+        }
+    }
+    
+    private static void addDeclarations(Set<TypeDeclaration> involved, 
+            ProducedType type) {
+        if (type == null) {
+            return;
+        }
+        addDeclaration(involved, type.getDeclaration());
+        addDeclarations(involved, type.getQualifyingType());
+        for (ProducedType ta: type.getTypeArgumentList()) {
+            addDeclarations(involved, ta);
+        }
+    }
+
+    private static void addDeclaration(Set<TypeDeclaration> involved, 
+            TypeDeclaration dec) {
+        if (dec instanceof UnionType) {
+            for (ProducedType ct: dec.getCaseTypes()) {
+                addDeclarations(involved, ct);
+            }
+        }
+        else if (dec instanceof IntersectionType) {
+            for (ProducedType st: dec.getSatisfiedTypes()) {
+                addDeclarations(involved, st);
+            }
         }
-        if (superType == null) {
-            superType = NULL_VALUE;
+        else if (dec != null) {
+            involved.add(dec);
         }
-        cache.put(dec, superType);
     }
 
     public void clear(){
         superTypes.clear();
+        keysByDeclaration.clear();
+        for (SubtypeStripe stripe: subtypes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+    
+    /**
+     * The cached result of {@link ProducedType#isSubtypeOf},
+     * or null if the result is not cached.
+     */
+    public Boolean getSubtype(ProducedType subtype, ProducedType supertype) {
+        if (subtypeCacheSize <= 0) {
+            return null;
+        }
+        SubtypeKey key = new SubtypeKey(subtype, supertype);
+        SubtypeStripe stripe = getStripe(key);
+        synchronized (stripe) {
+            Boolean result = stripe.get(key);
+            if (result == null) {
+                stripe.misses++;
+            }
+            else {
+                stripe.hits++;
+            }
+            return result;
+        }
+    }
+    
+    public void putSubtype(ProducedType subtype, ProducedType supertype, 
+            boolean result) {
+        if (subtypeCacheSize > 0) {
+            SubtypeKey key = new SubtypeKey(subtype, supertype);
+            SubtypeStripe stripe = getStripe(key);
+            synchronized (stripe) {
+                stripe.put(key, result);
+            }
+        }
+    }
+    
+    public long getSubtypeHits() {
+        long hits = 0;
+        for (SubtypeStripe stripe: subtypes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+    
+    public long getSubtypeMisses() {
+        long misses = 0;
+        for (SubtypeStripe stripe: subtypes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+    
+    /**
+     * The number of subtyping results evicted because the
+     * cache was full.
+     */
+    public long getSubtypeEvictions() {
+        long evictions = 0;
+        for (SubtypeStripe stripe: subtypes) {
+            synchronized (stripe) {
+                evictions += stripe.evictions;
+            }
+        }
+        return evictions;
+    }
+    
+    /**
+     * The number of subtyping results cached.
+     */
+    public int getSubtypeCacheSize() {
+        int size = 0;
+        for (SubtypeStripe stripe: subtypes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
     }
 
+    /**
+     * Evict the cached supertypes and subtyping results 
+     * which involve the given declaration, or any 
+     * declaration which inherits it. The number of 
+     * results evicted is reported by 
+     * {@link #getLastEvictionCount()}.
+     */
     public void clearForDeclaration(TypeDeclaration decl) {
-        // clear the whole cache for now, unless I can figure out exactly what to
-        // clear
-        clear();
+        //whether each declaration inherits the changed one
+        Map<TypeDeclaration, Boolean> inherits = 
+                new HashMap<TypeDeclaration, Boolean>();
+        Set<ProducedType> keys = new HashSet<ProducedType>();
+        for (Map.Entry<TypeDeclaration, Set<ProducedType>> entry: 
+                keysByDeclaration.entrySet()) {
+            if (dependsOn(entry.getKey(), decl, inherits)) {
+                keys.addAll(entry.getValue());
+                keysByDeclaration.remove(entry.getKey());
+            }
+        }
+        int evicted = 0;
+        for (ProducedType key: keys) {
+            Supertypes supertypes = superTypes.remove(key);
+            if (supertypes != null) {
+                evicted += supertypes.cache.size();
+                //remove the key from the index entries of
+                //the declarations which are not affected
+                for (TypeDeclaration td: supertypes.involved) {
+                    Set<ProducedType> others = keysByDeclaration.get(td);
+                    if (others != null) {
+                        others.remove(key);
+                        if (others.isEmpty()) {
+                            keysByDeclaration.remove(td, others);
+                        }
+                    }
+                }
+            }
+        }
+        for (SubtypeStripe stripe: subtypes) {
+            synchronized (stripe) {
+                for (Iterator<SubtypeKey> it = stripe.keySet().iterator(); 
+                        it.hasNext();) {
+                    SubtypeKey key = it.next();
+                    for (TypeDeclaration td: key.getInvolved()) {
+                        if (dependsOn(td, decl, inherits)) {
+                            it.remove();
+                            evicted++;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        invalidations.incrementAndGet();
+        evictions.addAndGet(evicted);
+        lastEvictions = evicted;
     }
     
-    public void clearNullValues() {
-        List<ProducedType> cachesToremove = new LinkedList<ProducedType>();
-        for (Map.Entry<ProducedType, Map<TypeDeclaration, ProducedType>> entry: 
-                superTypes.entrySet()) {
-            Map<TypeDeclaration, ProducedType> cache = entry.getValue();
-            if (cache == null) {
-                cachesToremove.add(entry.getKey());
+    /**
+     * Does the given declaration inherit the changed 
+     * declaration? Walks the declared supertypes, since 
+     * this may be called while circular inheritance is 
+     * being repaired, and records the answer for each
+     * declaration asked about.
+     */
+    private static boolean dependsOn(TypeDeclaration td, 
+            TypeDeclaration decl, Map<TypeDeclaration, Boolean> inherits) {
+        Boolean result = inherits.get(td);
+        if (result == null) {
+            result = dependsOn(td, decl, inherits, 
+                    new HashSet<TypeDeclaration>());
+            inherits.put(td, result);
+        }
+        return result;
+    }
+    
+    private static boolean dependsOn(TypeDeclaration td, 
+            TypeDeclaration decl, Map<TypeDeclaration, Boolean> inherits, 
+            Set<TypeDeclaration> visited) {
+        if (td.equals(decl)) {
+            return true;
+        }
+        Boolean known = inherits.get(td);
+        if (known != null) {
+            return known;
+        }
+        if (!visited.add(td)) {
+            return false;
+        }
+        ProducedType et = td.getExtendedType();
+        if (et != null && dependsOn(et, decl, inherits, visited)) {
+            return true;
+        }
+        for (ProducedType st: td.getSatisfiedTypes()) {
+            if (dependsOn(st, decl, inherits, visited)) {
+                return true;
             }
-            else {
-                List<TypeDeclaration> valuesToremove = 
-                        new LinkedList<TypeDeclaration>();
-                for (Map.Entry<TypeDeclaration, ProducedType> cacheEntry: 
-                        cache.entrySet()) {
-                    if (cacheEntry.getValue() == NULL_VALUE) {
-                        valuesToremove.add(cacheEntry.getKey());
-                    }
+        }
+        return false;
+    }
+    
+    private static boolean dependsOn(ProducedType type, 
+            TypeDeclaration decl, Map<TypeDeclaration, Boolean> inherits, 
+            Set<TypeDeclaration> visited) {
+        TypeDeclaration td = type.getDeclaration();
+        if (td instanceof UnionType) {
+            for (ProducedType ct: td.getCaseTypes()) {
+                if (dependsOn(ct, decl, inherits, visited)) {
+                    return true;
                 }
-                for (TypeDeclaration toRemove: valuesToremove) {
-                    cache.remove(toRemove);
+            }
+            return false;
+        }
+        else if (td instanceof IntersectionType) {
+            for (ProducedType st: td.getSatisfiedTypes()) {
+                if (dependsOn(st, decl, inherits, visited)) {
+                    return true;
                 }
             }
+            return false;
         }
-        for (ProducedType toRemove: cachesToremove) {
-            superTypes.remove(toRemove);
+        else {
+            return td != null && 
+                    dependsOn(td, decl, inherits, visited);
+        }
+    }
+    
+    /**
+     * The number of calls to {@link #clearForDeclaration}.
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+    
+    /**
+     * The total number of cached supertypes and subtyping
+     * results evicted by {@link #clearForDeclaration}.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    /**
+     * The number of cached supertypes and subtyping results
+     * evicted by the last call to 
+     * {@link #clearForDeclaration}.
+     */
+    public int getLastEvictionCount() {
+        return lastEvictions;
+    }
+    
+    public void clearNullValues() {
+        for (Supertypes supertypes: superTypes.values()) {
+            Map<TypeDeclaration, ProducedType> cache = supertypes.cache;
+            List<TypeDeclaration> valuesToremove = 
+                    new LinkedList<TypeDeclaration>();
+            for (Map.Entry<TypeDeclaration, ProducedType> cacheEntry: 
+                    cache.entrySet()) {
+                if (cacheEntry.getValue() == NULL_VALUE) {
+                    valuesToremove.add(cacheEntry.getKey());
+                }
+            }
+            for (TypeDeclaration toRemove: valuesToremove) {
+                cache.remove(toRemove);
+            }
         }
     }
 }
@@ -0,0 +1,538 @@
+package com.redhat.ceylon.compiler.typechecker.context;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Import;
+import com.redhat.ceylon.compiler.typechecker.model.Package;
+import com.redhat.ceylon.compiler.typechecker.model.ProducedType;
+import com.redhat.ceylon.compiler.typechecker.model.TypeDeclaration;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
+
+/**
+ * Schedules the last three type checking phases
+ * ({@link PhasedUnit#analyseTypes()},
+ * {@link PhasedUnit#analyseFlow()}, and
+ * {@link PhasedUnit#analyseUsage()}) of a list of phased
+ * units according to the dependencies between the units,
+ * instead of waiting for every unit at the end of each
+ * phase.
+ *
+ * A unit depends upon the units which declare the types
+ * it imports, inherits, or mentions, upon the units
+ * recorded by {@link Unit#getDependentsOf()}, and, within
+ * a package, upon the preceding units when either unit
+ * declares a toplevel with an inferred type. Units which
+ * depend upon each other are grouped together and checked
+ * in their original order. The types of a group are
+ * analysed after the types of the groups it depends upon,
+ * and its flow and usage are analysed as soon as its own
+ * types are.
+ *
+ * The scheduler records when each step started and
+ * finished, so that {@link #getCriticalPath()} can report
+ * the chain of steps that determined the total time.
+ */
+public class UnitScheduler {
+
+    private static final String[] PHASES =
+            { "analyseTypes", "analyseFlow", "analyseUsage" };
+
+    /**
+     * A phase of a group of units, as it was executed.
+     */
+    public static class Step {
+
+        private final List<PhasedUnit> units;
+        private final int phase;
+        private final List<Step> successors = new ArrayList<Step>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile Step gate;
+        private volatile long start;
+        private volatile long end;
+        private Integer initialDepth;
+        private Integer finalDepth;
+
+        Step(List<PhasedUnit> units, int phase) {
+            this.units = units;
+            this.phase = phase;
+        }
+
+        void dependsOn(Step step) {
+            step.successors.add(this);
+            pending.incrementAndGet();
+        }
+
+        public List<PhasedUnit> getUnits() {
+            return units;
+        }
+
+        public String getPhase() {
+            return PHASES[phase];
+        }
+
+        /**
+         * The time, in nanoseconds, the step spent
+         * running.
+         */
+        public long getDuration() {
+            return end-start;
+        }
+
+        /**
+         * The step whose completion allowed this step
+         * to start, or null if it had no dependencies.
+         */
+        public Step getGate() {
+            return gate;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(getPhase())
+                    .append(" ");
+            for (int i=0; i<units.size(); i++) {
+                if (i>0) sb.append(", ");
+                sb.append(units.get(i).getPathRelativeToSrcDir());
+            }
+            return sb.toString();
+        }
+
+    }
+
+    private final ForkJoinPool pool;
+    private List<Step> steps = Collections.emptyList();
+    private long start;
+    private long end;
+
+    /**
+     * @param pool the pool to run the steps in
+     */
+    UnitScheduler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Analyse the types, flow, and usage of the given
+     * units, which must already have had their refinement
+     * validated, and wait for every unit to complete.
+     */
+    public void run(List<PhasedUnit> units) {
+        BitSet[] graph = dependencies(units);
+        List<List<PhasedUnit>> groups = groups(units, graph);
+        int size = groups.size();
+        List<Step> steps = new ArrayList<Step>(size*3);
+        Map<PhasedUnit,Integer> groupOfUnit =
+                new IdentityHashMap<PhasedUnit,Integer>();
+        for (int i=0; i<size; i++) {
+            for (PhasedUnit pu: groups.get(i)) {
+                groupOfUnit.put(pu, i);
+            }
+        }
+        Step[] types = new Step[size];
+        for (int i=0; i<size; i++) {
+            List<PhasedUnit> group = groups.get(i);
+            Step typesStep = new Step(group, 0);
+            Step flowStep = new Step(group, 1);
+            Step usageStep = new Step(group, 2);
+            flowStep.dependsOn(typesStep);
+            usageStep.dependsOn(flowStep);
+            types[i] = typesStep;
+            steps.add(typesStep);
+            steps.add(flowStep);
+            steps.add(usageStep);
+        }
+        //groups are in reverse topological order, so the
+        //groups each group depends upon come before it
+        Map<PhasedUnit,Integer> indexOfUnit =
+                new IdentityHashMap<PhasedUnit,Integer>();
+        for (int i=0; i<units.size(); i++) {
+            indexOfUnit.put(units.get(i), i);
+        }
+        for (int i=0; i<size; i++) {
+            BitSet seen = new BitSet();
+            for (PhasedUnit pu: groups.get(i)) {
+                BitSet deps = graph[indexOfUnit.get(pu)];
+                for (int d=deps.nextSetBit(0); d>=0;
+                        d=deps.nextSetBit(d+1)) {
+                    int g = groupOfUnit.get(units.get(d));
+                    if (g!=i && !seen.get(g)) {
+                        seen.set(g);
+                        types[i].dependsOn(types[g]);
+                    }
+                }
+            }
+        }
+        this.steps = steps;
+        execute(steps);
+    }
+
+    private void execute(List<Step> steps) {
+        final Boolean cachingEnabled = ProducedTypeCache.isEnabled();
+        final Integer depth = ProducedType.depth.get();
+        final CountDownLatch latch =
+                new CountDownLatch(steps.size());
+        final AtomicReference<Throwable> failure =
+                new AtomicReference<Throwable>();
+        start = System.nanoTime();
+        List<Step> ready = new ArrayList<Step>();
+        for (Step step: steps) {
+            if (step.pending.get()==0) {
+                step.initialDepth = depth;
+                ready.add(step);
+            }
+        }
+        for (Step step: ready) {
+            submit(step, cachingEnabled, failure, latch);
+        }
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while type checking", e);
+        }
+        end = System.nanoTime();
+        //leave the calling thread in the state it would
+        //be in had it run the last unit itself
+        Step last = steps.isEmpty() ?
+                null : steps.get(steps.size()-1);
+        if (last!=null && last.finalDepth!=null) {
+            ProducedType.depth.set(last.finalDepth);
+        }
+        Throwable cause = failure.get();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        else if (cause!=null) {
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void submit(final Step step,
+            final Boolean cachingEnabled,
+            final AtomicReference<Throwable> failure,
+            final CountDownLatch latch) {
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Step> released = new ArrayList<Step>();
+                complete(step, cachingEnabled, failure,
+                        released, latch);
+                for (Step successor: released) {
+                    submit(successor, cachingEnabled,
+                            failure, latch);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the step, unless an earlier step failed, and
+     * collect the successors which are ready to run.
+     */
+    private void complete(Step step, Boolean cachingEnabled,
+            AtomicReference<Throwable> failure,
+            List<Step> released, CountDownLatch latch) {
+        Boolean enabled =
+                ProducedTypeCache.setEnabled(cachingEnabled);
+        Integer depth = ProducedType.depth.get();
+        ProducedType.depth.set(step.initialDepth);
+        step.start = System.nanoTime();
+        try {
+            if (failure.get()==null) {
+                for (PhasedUnit pu: step.units) {
+                    switch (step.phase) {
+                    case 0: pu.analyseTypes(); break;
+                    case 1: pu.analyseFlow(); break;
+                    case 2: pu.analyseUsage(); break;
+                    }
+                }
+            }
+            step.finalDepth = ProducedType.depth.get();
+        }
+        catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+        finally {
+            step.end = System.nanoTime();
+            ProducedType.depth.set(depth);
+            ProducedTypeCache.setEnabled(enabled);
+        }
+        for (Step successor: step.successors) {
+            if (successor.pending.decrementAndGet()==0) {
+                //the last dependency to complete is the
+                //one which held the successor up
+                successor.gate = step;
+                successor.initialDepth = step.finalDepth;
+                released.add(successor);
+            }
+        }
+        latch.countDown();
+    }
+
+    /**
+     * The chain of steps of the last run which determined
+     * its total time: the step which finished last, the
+     * step which it was waiting for, and so on, in
+     * execution order.
+     */
+    public List<Step> getCriticalPath() {
+        Step last = null;
+        for (Step step: steps) {
+            if (last==null || step.end>last.end) {
+                last = step;
+            }
+        }
+        List<Step> path = new ArrayList<Step>();
+        for (Step step=last; step!=null; step=step.gate) {
+            path.add(step);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Print the critical path of the last run.
+     */
+    public void printCriticalPath(PrintStream out) {
+        List<Step> path = getCriticalPath();
+        long total = 0;
+        for (Step step: path) {
+            total += step.getDuration();
+        }
+        out.println("Critical path: " + path.size() + " of " +
+                steps.size() + " steps, " + total/1000000 +
+                " of " + (end-start)/1000000 + " ms");
+        for (Step step: path) {
+            out.println("  " + step.getDuration()/1000000 +
+                    " ms " + step);
+        }
+    }
+
+    /**
+     * The strongly connected components of the dependency
+     * graph of the units, in reverse topological order,
+     * with the units of each component in their original
+     * order.
+     */
+    private static List<List<PhasedUnit>> groups(List<PhasedUnit> units,
+            BitSet[] graph) {
+        Tarjan tarjan = new Tarjan(graph);
+        for (int i=0; i<graph.length; i++) {
+            if (tarjan.index[i]<0) {
+                tarjan.connect(i);
+            }
+        }
+        List<List<PhasedUnit>> groups =
+                new ArrayList<List<PhasedUnit>>(tarjan.components.size());
+        for (int[] component: tarjan.components) {
+            List<PhasedUnit> group = 
+                    new ArrayList<PhasedUnit>(component.length);
+            for (int i: component) {
+                group.add(units.get(i));
+            }
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Tarjan's algorithm, with an explicit stack instead of
+     * recursion, since a chain of dependencies may be as 
+     * long as the list of units.
+     */
+    private static class Tarjan {
+        final BitSet[] graph;
+        final int[] index;
+        final int[] lowlink;
+        final BitSet onStack;
+        final int[] stack;
+        int top = 0;
+        //the vertices being visited, innermost last, with
+        //the next edge to follow from each of them
+        final int[] path;
+        final int[] nextEdge;
+        int depth = 0;
+        int counter = 0;
+        //the indexes of the vertices of each component,
+        //in ascending order
+        final List<int[]> components = new ArrayList<int[]>();
+
+        Tarjan(BitSet[] graph) {
+            this.graph = graph;
+            index = new int[graph.length];
+            lowlink = new int[graph.length];
+            stack = new int[graph.length];
+            path = new int[graph.length];
+            nextEdge = new int[graph.length];
+            onStack = new BitSet(graph.length);
+            Arrays.fill(index, -1);
+        }
+
+        void connect(int root) {
+            enter(root);
+            while (depth>0) {
+                int v = path[depth-1];
+                int w = graph[v].nextSetBit(nextEdge[depth-1]);
+                if (w>=0) {
+                    nextEdge[depth-1] = w+1;
+                    if (index[w]<0) {
+                        enter(w);
+                    }
+                    else if (onStack.get(w)) {
+                        lowlink[v] = Math.min(lowlink[v], index[w]);
+                    }
+                }
+                else {
+                    //every edge of v has been followed
+                    depth--;
+                    if (lowlink[v]==index[v]) {
+                        int bottom = top;
+                        do {
+                            onStack.clear(stack[--bottom]);
+                        }
+                        while (stack[bottom]!=v);
+                        int[] component = 
+                                Arrays.copyOfRange(stack, bottom, top);
+                        Arrays.sort(component);
+                        components.add(component);
+                        top = bottom;
+                    }
+                    if (depth>0) {
+                        int parent = path[depth-1];
+                        lowlink[parent] = Math.min(lowlink[parent], lowlink[v]);
+                    }
+                }
+            }
+        }
+
+        private void enter(int v) {
+            index[v] = lowlink[v] = counter++;
+            stack[top++] = v;
+            onStack.set(v);
+            path[depth] = v;
+            nextEdge[depth] = 0;
+            depth++;
+        }
+    }
+
+    /**
+     * For each unit, the indexes of the units it depends
+     * upon.
+     */
+    private static BitSet[] dependencies(List<PhasedUnit> units) {
+        int size = units.size();
+        final Map<Unit,Integer> indexOfUnit =
+                new HashMap<Unit,Integer>();
+        Map<String,Integer> indexOfPath =
+                new HashMap<String,Integer>();
+        for (int i=0; i<size; i++) {
+            PhasedUnit pu = units.get(i);
+            indexOfUnit.put(pu.getUnit(), i);
+            indexOfPath.put(pu.getUnit().getFullPath(), i);
+        }
+        final BitSet[] graph = new BitSet[size];
+        for (int i=0; i<size; i++) {
+            graph[i] = new BitSet();
+        }
+        for (int i=0; i<size; i++) {
+            final int from = i;
+            final BitSet deps = graph[i];
+            Unit unit = units.get(i).getUnit();
+            for (Import imp: unit.getImports()) {
+                addDependency(deps, from, indexOfUnit,
+                        imp.getDeclaration());
+            }
+            for (Declaration d: unit.getDeclarations()) {
+                if (d instanceof TypeDeclaration) {
+                    for (TypeDeclaration std:
+                            ((TypeDeclaration) d).getSupertypeDeclarations()) {
+                        addDependency(deps, from, indexOfUnit, std);
+                    }
+                }
+            }
+            units.get(i).getCompilationUnit().visit(new Visitor() {
+                @Override
+                public void visit(Tree.SimpleType that) {
+                    super.visit(that);
+                    addDependency(deps, from, indexOfUnit,
+                            that.getDeclarationModel());
+                }
+            });
+            //the IDE records which units depend upon
+            //this one
+            for (String path: unit.getDependentsOf()) {
+                Integer dependent = indexOfPath.get(path);
+                if (dependent!=null && dependent!=i) {
+                    graph[dependent].set(i);
+                }
+            }
+        }
+        //the type of a toplevel declaration with an inferred
+        //type is only known once its unit has been analysed,
+        //so keep the original order of the units of its
+        //package
+        boolean[] inferred = new boolean[size];
+        for (int i=0; i<size; i++) {
+            inferred[i] = hasInferredToplevel(units.get(i));
+        }
+        Map<Package,List<Integer>> packages =
+                new HashMap<Package,List<Integer>>();
+        for (int i=0; i<size; i++) {
+            PhasedUnit pu = units.get(i);
+            List<Integer> preceding = packages.get(pu.getPackage());
+            if (preceding==null) {
+                preceding = new ArrayList<Integer>();
+                packages.put(pu.getPackage(), preceding);
+            }
+            for (int j: preceding) {
+                if (inferred[i] || inferred[j]) {
+                    graph[i].set(j);
+                }
+            }
+            preceding.add(i);
+        }
+        return graph;
+    }
+
+    private static boolean hasInferredToplevel(PhasedUnit pu) {
+        for (Tree.Declaration d:
+                pu.getCompilationUnit().getDeclarations()) {
+            if (d instanceof Tree.TypedDeclaration &&
+                    ((Tree.TypedDeclaration) d).getType()
+                            instanceof Tree.LocalModifier) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addDependency(BitSet deps, int from,
+            Map<Unit,Integer> indexOfUnit, Declaration dec) {
+        if (dec!=null) {
+            Integer to = indexOfUnit.get(dec.getUnit());
+            if (to!=null && to!=from) {
+                deps.set(to);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.redhat.ceylon.compiler.typechecker.io;
+
+import java.io.IOException;
+
+import org.antlr.runtime.CharStream;
+
+/**
+ * A file which can decode its content into a character
+ * stream for the lexer more cheaply than by reading its
+ * {@link #getInputStream() input stream}.
+ */
+public interface CharStreamVirtualFile extends VirtualFile {
+    /**
+     * The content of the file, decoded using the given 
+     * encoding.
+     * @throws exception when is a folder
+     */
+    CharStream getCharStream(String encoding) throws IOException;
+}
@@ -1,19 +1,25 @@
 package com.redhat.ceylon.compiler.typechecker.io.impl;
 
+import com.redhat.ceylon.compiler.typechecker.io.CharStreamVirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.antlr.runtime.CharStream;
+
 /**
  * @author Emmanuel Bernard <emmanuel@hibernate.org>
  */
-public class FileSystemVirtualFile implements VirtualFile {
+public class FileSystemVirtualFile implements CharStreamVirtualFile {
     private final File file;
     
 
@@ -52,6 +58,29 @@ public class FileSystemVirtualFile implements VirtualFile {
         }
     }
 
+    /**
+     * Read the whole file into a buffer, and decode it in 
+     * one go, instead of reading it through a 
+     * {@link java.io.Reader}. The file is not mapped, since
+     * a mapped file stays locked, on some platforms, until 
+     * the buffer is collected.
+     */
+    @Override
+    public CharStream getCharStream(String encoding) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            while (bytes.hasRemaining() && 
+                    channel.read(bytes)>=0) {}
+            bytes.flip();
+            return Helper.decode(bytes, encoding);
+        }
+        finally {
+            stream.close();
+        }
+    }
+
     @Override
     public List<VirtualFile> getChildren() {
         List<VirtualFile> files;
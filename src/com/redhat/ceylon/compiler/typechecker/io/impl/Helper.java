@@ -1,8 +1,16 @@
 package com.redhat.ceylon.compiler.typechecker.io.impl;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.zip.ZipEntry;
 
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CharStream;
+
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 
 /**
@@ -51,4 +59,24 @@ public class Helper {
             return rawRelativePath;
         }
     }
+
+    /**
+     * Decode the given bytes with a single bulk decode, 
+     * straight into the buffer of the returned stream.
+     * Malformed and unmappable input is replaced, as by 
+     * an {@link java.io.InputStreamReader}.
+     */
+    public static CharStream decode(ByteBuffer bytes, String encoding) {
+        try {
+            CharBuffer chars = Charset.forName(encoding).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+            return new ANTLRStringStream(chars.array(), chars.limit());
+        }
+        catch (CharacterCodingException e) {
+            //cannot happen, since errors are replaced
+            throw new RuntimeException(e);
+        }
+    }
 }
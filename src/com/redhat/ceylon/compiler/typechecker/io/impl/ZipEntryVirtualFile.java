@@ -1,9 +1,12 @@
 package com.redhat.ceylon.compiler.typechecker.io.impl;
 
+import com.redhat.ceylon.compiler.typechecker.io.CharStreamVirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -11,10 +14,13 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.io.FilterInputStream;
 
+import org.antlr.runtime.ANTLRInputStream;
+import org.antlr.runtime.CharStream;
+
 /**
  * @author Emmanuel Bernard <emmanuel@hibernate.org>
  */
-class ZipEntryVirtualFile implements VirtualFile {
+class ZipEntryVirtualFile implements CharStreamVirtualFile {
 
     public static final List<VirtualFile> EMPTY_CHILDREN = Collections.unmodifiableList( new ArrayList<VirtualFile>(0) );
     private final String name;
@@ -60,6 +66,28 @@ class ZipEntryVirtualFile implements VirtualFile {
         }
     }
 
+    /**
+     * Inflate the entry straight into a buffer of its
+     * known uncompressed size, and decode it in one go.
+     */
+    @Override
+    public CharStream getCharStream(String encoding) throws IOException {
+        long size = entry.getSize();
+        if (size<0 || size>Integer.MAX_VALUE) {
+            //the size is not known
+            return new ANTLRInputStream(getInputStream(), encoding);
+        }
+        byte[] bytes = new byte[(int) size];
+        InputStream stream = zipFile.getInputStream(entry);
+        try {
+            new DataInputStream(stream).readFully(bytes);
+        }
+        finally {
+            stream.close();
+        }
+        return Helper.decode(ByteBuffer.wrap(bytes), encoding);
+    }
+
     @Override
     public List<VirtualFile> getChildren() {
         return EMPTY_CHILDREN;
@@ -4,11 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -16,13 +13,18 @@ import com.redhat.ceylon.compiler.typechecker.io.ClosableVirtualFile;
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 
 /**
+ * An archive, as a folder. The folders of the archive are
+ * only created as they are visited, using a shared
+ * {@link ZipIndex} of the archive.
+ *
  * @author Emmanuel Bernard <emmanuel@hibernate.org>
  */
 public class ZipFileVirtualFile implements ClosableVirtualFile {
 
     protected final ZipFile zipFile;
     private final String name;
-    private final List<VirtualFile> children;
+    private final ZipIndex index;
+    private volatile List<VirtualFile> children;
     private final boolean closable;
 
     public ZipFileVirtualFile(File file) throws IOException {
@@ -39,70 +41,30 @@ public class ZipFileVirtualFile implements ClosableVirtualFile {
         final String path = zipFile.getName();
         final int lastIndex = path.lastIndexOf(File.separator);
         this.name = lastIndex == -1 ? path : path.substring(lastIndex+1);
-        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-        SortedSet<String> entryNames = new TreeSet<String>();
-        while ( entries.hasMoreElements() ) {
-            String entryName = entries.nextElement().getName();
-            // Also add the ancestor directories (for the case directories are not in the archive)
-            List<String> parentEntriesNames = getParentEntriesNames(entryName);
-            entryNames.add(entryName);
-            entryNames.addAll(parentEntriesNames);
-        }
-        List<VirtualFile> directChildren = new ArrayList<VirtualFile>();
-        LinkedList<ZipFolderVirtualFile> directoryStack = new LinkedList<ZipFolderVirtualFile>();
+        this.index = ZipIndex.forArchive(zipFile);
+    }
+
+    /**
+     * Create the virtual files for the entries of the given
+     * folder of the archive.
+     */
+    static List<VirtualFile> createChildren(ZipIndex index, 
+            ZipFile zipFile, String folderName) {
+        final List<String> entryNames = index.getChildren(folderName, zipFile);
+        final String path = zipFile.getName();
+        final List<VirtualFile> children = new ArrayList<VirtualFile>(entryNames.size());
         for ( String entryName : entryNames ) {
-            if ( entryName.endsWith("/")) {
-                /*
-                entries are now ordered with directories,
-                if an entry is a child of the previous entry, add it as child
-                if an entry is not a child of the previous entry, move up till we find its parent
-                 */
-                final ZipFolderVirtualFile folder = new ZipFolderVirtualFile(entryName, path);
-                addToParentfolder(directChildren, directoryStack, entryName, folder);
-                directoryStack.addLast(folder);
+            if ( entryName.endsWith("/") ) {
+                children.add( new ZipFolderVirtualFile(entryName, path, index, zipFile) );
             }
             else {
                 final ZipEntry entry = zipFile.getEntry(entryName);
-                ZipEntryVirtualFile file = new ZipEntryVirtualFile(entry, zipFile);
-                addToParentfolder(directChildren, directoryStack, entryName, file);
+                if (entry != null) {
+                    children.add( new ZipEntryVirtualFile(entry, zipFile) );
+                }
             }
         }
-        children = directChildren;
-    }
-
-    private List<String> getParentEntriesNames(String entryName) {
-        List<String> parentEntries = new ArrayList<String>();
-        String[] entrySegments = entryName.split("/");
-        if (entrySegments.length == 0) {
-            return parentEntries;
-        }
-        String ancestor = "";
-        for (int i=0; i<entrySegments.length - 1; i++) {
-            ancestor += entrySegments[i] + "/";
-            parentEntries.add(ancestor);
-        }
-        return parentEntries;
-    }
-
-    private void addToParentfolder(List<VirtualFile> directChildren, LinkedList<ZipFolderVirtualFile> directoryStack, String entryName, VirtualFile file) {
-        ZipFolderVirtualFile up = directoryStack.peekLast();
-        while ( !isChildOf(entryName, up) ) {
-            directoryStack.pollLast();
-            up = directoryStack.peekLast();
-        }
-        if (up == null) {
-            directChildren.add(file);
-        }
-        else {
-            up.addChild(file);
-        }
-    }
-
-    private boolean isChildOf(String entryName, ZipFolderVirtualFile lastFolder) {
-        if (lastFolder == null) {
-            return true;
-        }
-        return entryName.startsWith( lastFolder.getEntryName() );
+        return Collections.unmodifiableList(children);
     }
 
     @Override
@@ -127,6 +89,9 @@ public class ZipFileVirtualFile implements ClosableVirtualFile {
 
     @Override
     public List<VirtualFile> getChildren() {
+        if (children == null) {
+            children = createChildren(index, zipFile, "");
+        }
         return children;
     }
 
@@ -1,9 +1,8 @@
 package com.redhat.ceylon.compiler.typechecker.io.impl;
 
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.zip.ZipFile;
 
 import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 
@@ -15,9 +14,14 @@ class ZipFolderVirtualFile implements VirtualFile {
     private final String name;
     private final String path;
     private final String entryName;
-    private final List<VirtualFile> children = new ArrayList<VirtualFile>();
+    private final ZipIndex index;
+    private final ZipFile zipFile;
+    private volatile List<VirtualFile> children;
 
-    public ZipFolderVirtualFile(String entryName, String rootPath) {
+    public ZipFolderVirtualFile(String entryName, String rootPath, 
+            ZipIndex index, ZipFile zipFile) {
+        this.index = index;
+        this.zipFile = zipFile;
         this.name = Helper.getSimpleName(entryName);
         this.entryName = entryName;
         String tempPath = rootPath + "!/" + entryName;
@@ -46,11 +50,10 @@ class ZipFolderVirtualFile implements VirtualFile {
 
     @Override
     public List<VirtualFile> getChildren() {
-        return Collections.unmodifiableList( children );
-    }
-
-    public void addChild(VirtualFile file) {
-        children.add(file);
+        if (children == null) {
+            children = ZipFileVirtualFile.createChildren(index, zipFile, entryName);
+        }
+        return children;
     }
 
     public String getEntryName() {
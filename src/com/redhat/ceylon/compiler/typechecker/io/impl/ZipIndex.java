@@ -0,0 +1,149 @@
+package com.redhat.ceylon.compiler.typechecker.io.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The directory tree of an archive: the names of the
+ * entries of each folder, including folders which have
+ * no entry of their own in the archive. Built from the
+ * central directory of the archive the first time it is
+ * needed, and shared by every {@link ZipFileVirtualFile}
+ * for the same archive, as long as the archive has not
+ * been modified since. Only the indexes of the most 
+ * recently opened archives are kept.
+ *
+ * Folder names, including the name of the root folder,
+ * which is the empty string, end with a slash, as the
+ * names of folder entries do.
+ */
+class ZipIndex {
+
+    private static final int SHARED_INDEXES = 64;
+    
+    private static final Map<String,ZipIndex> shared =
+            new LinkedHashMap<String,ZipIndex>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,ZipIndex> eldest) {
+            return size()>SHARED_INDEXES;
+        }
+    };
+
+    private final String path;
+    private final long lastModified;
+    private volatile Map<String,List<String>> children;
+
+    private ZipIndex(String path, long lastModified) {
+        this.path = path;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * The index of the given archive, reusing the index
+     * of a previously opened archive with the same path
+     * and modification time, if any.
+     */
+    static ZipIndex forArchive(ZipFile zipFile) {
+        File file = new File(zipFile.getName());
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        if (lastModified==0L) {
+            //not a file we can identify later
+            return new ZipIndex(path, lastModified);
+        }
+        synchronized (shared) {
+            ZipIndex index = shared.get(path);
+            if (index==null || index.lastModified!=lastModified) {
+                index = new ZipIndex(path, lastModified);
+                shared.put(path, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * The names of the entries of the given folder, in
+     * order, or an empty list if there is no such folder.
+     */
+    List<String> getChildren(String folderName, ZipFile zipFile) {
+        List<String> result = index(zipFile).get(folderName);
+        if (result==null) {
+            return Collections.emptyList();
+        }
+        else {
+            return result;
+        }
+    }
+
+    private Map<String,List<String>> index(ZipFile zipFile) {
+        Map<String,List<String>> result = children;
+        if (result==null) {
+            synchronized (this) {
+                result = children;
+                if (result==null) {
+                    result = build(zipFile);
+                    children = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String,List<String>> build(ZipFile zipFile) {
+        Map<String,List<String>> result =
+                new HashMap<String,List<String>>();
+        result.put("", new ArrayList<String>());
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (!name.isEmpty()) {
+                add(result, name);
+            }
+        }
+        for (List<String> names: result.values()) {
+            Collections.sort(names);
+            //an archive may contain the same file twice
+            for (int i=names.size()-1; i>0; i--) {
+                if (names.get(i).equals(names.get(i-1))) {
+                    names.remove(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the given entry to its folder, adding the folder,
+     * and its ancestors, if they are not already known.
+     */
+    private static void add(Map<String,List<String>> folders,
+            String name) {
+        boolean folder = name.endsWith("/");
+        if (folder) {
+            if (folders.containsKey(name)) {
+                return;
+            }
+            folders.put(name, new ArrayList<String>());
+        }
+        int end = folder ? name.length()-1 : name.length();
+        String parent = name.substring(0, name.lastIndexOf('/', end-1)+1);
+        if (!parent.isEmpty() && !folders.containsKey(parent)) {
+            add(folders, parent);
+        }
+        folders.get(parent).add(name);
+    }
+
+    @Override
+    public String toString() {
+        return "ZipIndex{path='" + path + "'}";
+    }
+}
@@ -2,11 +2,14 @@ package com.redhat.ceylon.compiler.typechecker.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 public abstract class ClassOrInterface extends TypeDeclaration {
 
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    //members are read by subtypes in other units, which 
+    //may be type checked concurrently
+    private List<Declaration> members = new CopyOnWriteArrayList<Declaration>();
     private List<Annotation> annotations = new ArrayList<Annotation>(4);
     
     @Override
@@ -22,6 +25,7 @@ public abstract class ClassOrInterface extends TypeDeclaration {
     @Override
     public void addMember(Declaration declaration) {
         members.add(declaration);
+        clearInheritedMemberCaches();
     }
     
     @Override
@@ -3,6 +3,7 @@ package com.redhat.ceylon.compiler.typechecker.model;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A scope representing a block of a control structure. Note
@@ -15,7 +16,7 @@ import java.util.Set;
 public class ControlBlock extends Element implements Scope {
     
     private Set<Value> specifiedValues;
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new CopyOnWriteArrayList<Declaration>();
     
     @Override
     public List<Declaration> getMembers() {
@@ -68,10 +68,29 @@ public abstract class Element {
      */
     public Declaration getDirectMember(String name, 
             List<ProducedType> signature, boolean ellipsis) {
-        return lookupMember(getMembers(), 
+        return lookupMember(getMembersNamed(name), 
                 name, signature, ellipsis);
     }
     
+    private volatile MemberIndex memberIndex;
+    
+    /**
+     * The members of this scope, or, if there are many of
+     * them, just the members with the given name.
+     */
+    List<Declaration> getMembersNamed(String name) {
+        List<Declaration> members = getMembers();
+        MemberIndex index = 
+                MemberIndex.update(memberIndex, members);
+        if (index==null) {
+            return members;
+        }
+        else {
+            memberIndex = index;
+            return index.get(name);
+        }
+    }
+    
     /**
      * Search only this scope, including members inherited 
      * by the scope, without considering containing scopes 
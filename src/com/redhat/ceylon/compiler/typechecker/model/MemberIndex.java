@@ -0,0 +1,95 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+import static java.util.Collections.emptyList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the members of a scope by name, so that
+ * looking up a member of a package with thousands of
+ * toplevels, or of a class with hundreds of members,
+ * does not mean scanning all of them.
+ *
+ * An index is a snapshot of a list of members. It is
+ * rebuilt when the scope returns a different list, as
+ * a {@link Package} does after a unit is added or
+ * removed, or when a member has been added to the list.
+ * The declarations with a given name are listed in the
+ * order they occur in the list of members, so that the
+ * overloading rules of {@link Util#lookupMember} are
+ * unaffected.
+ */
+final class MemberIndex {
+
+    /**
+     * Scopes with fewer members are just scanned.
+     */
+    private static final int THRESHOLD = 8;
+
+    private final List<Declaration> members;
+    private final int size;
+    private final Map<String,List<Declaration>> byName;
+
+    private MemberIndex(List<Declaration> members) {
+        this.members = members;
+        this.size = members.size();
+        this.byName =
+                new HashMap<String,List<Declaration>>(size*2);
+        for (int i=0; i<size; i++) {
+            Declaration d = members.get(i);
+            String name = d.getName();
+            if (name!=null) {
+                List<Declaration> named = byName.get(name);
+                if (named==null) {
+                    named = new ArrayList<Declaration>(1);
+                    byName.put(name, named);
+                }
+                named.add(d);
+            }
+        }
+    }
+
+    private boolean isCurrent(List<Declaration> members) {
+        return this.members==members &&
+                size==members.size();
+    }
+
+    /**
+     * Return an index which is up to date with the given
+     * list of members, or null if the list is too short
+     * to bother indexing.
+     *
+     * @param index the index previously returned for
+     *        the scope, or null
+     */
+    static MemberIndex update(MemberIndex index,
+            List<Declaration> members) {
+        if (members.size()<THRESHOLD) {
+            return null;
+        }
+        else if (index!=null && index.isCurrent(members)) {
+            return index;
+        }
+        else {
+            return new MemberIndex(members);
+        }
+    }
+
+    /**
+     * The members with the given name, in the order in
+     * which they occur in the list of members.
+     */
+    List<Declaration> get(String name) {
+        List<Declaration> named = byName.get(name);
+        if (named==null) {
+            return emptyList();
+        }
+        else {
+            return named;
+        }
+    }
+
+}
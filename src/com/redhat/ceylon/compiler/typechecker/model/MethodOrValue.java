@@ -2,13 +2,14 @@ package com.redhat.ceylon.compiler.typechecker.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class MethodOrValue extends TypedDeclaration {
     
     private boolean captured;
     private boolean shortcutRefinement;
     private Parameter initializerParameter;
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new CopyOnWriteArrayList<Declaration>();
     private List<Annotation> annotations = new ArrayList<Annotation>(4);
     
     @Override
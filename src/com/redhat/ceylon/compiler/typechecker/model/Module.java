@@ -4,13 +4,20 @@ import static com.redhat.ceylon.compiler.typechecker.model.Util.isNameMatching;
 import static com.redhat.ceylon.compiler.typechecker.model.Util.isOverloadedVersion;
 import static com.redhat.ceylon.compiler.typechecker.model.Util.isResolvable;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.redhat.ceylon.compiler.typechecker.context.ProducedTypeCache;
 
@@ -24,7 +31,7 @@ public class Module
     private String version;
     private int major;
     private int minor;
-    private List<Package> packages = new ArrayList<Package>();
+    private List<Package> packages = new PackageList(this);
     private List<ModuleImport> imports = new ArrayList<ModuleImport>();
     private Module languageModule;
     private boolean available;
@@ -33,6 +40,7 @@ public class Module
     private Unit unit;
     private String memoisedName;
     private ProducedTypeCache cache = new ProducedTypeCache();
+    private ProducedTypeInterner interner = new ProducedTypeInterner();
     private String signature;
 
     /**
@@ -65,6 +73,7 @@ public class Module
     
     public void addImport(ModuleImport modImport) {
         imports.add(modImport);
+        packagesChanged();
     }
     
     public Module getLanguageModule() {
@@ -74,6 +83,70 @@ public class Module
     public void setLanguageModule(Module languageModule) {
         this.languageModule = languageModule;
     }
+    
+    /**
+     * Stamps which change whenever the model changes, so 
+     * that information computed from it can be discarded.
+     * They are shared by the modules with the same language
+     * module, that is, the modules of one type checker, so
+     * a change to the model of one type checker does not
+     * discard the information cached by another.
+     */
+    static final class Generations {
+        //stamps are unique across type checkers, so that
+        //information computed from the model of one set of 
+        //modules is never taken for current in another
+        private static final AtomicLong stamps = new AtomicLong();
+        //for declarations which don't belong to a module
+        static final Generations UNOWNED = new Generations();
+        //changes whenever a member is added to a type, or
+        //the supertypes of a type change, since that may 
+        //affect the inherited members of any of its subtypes
+        private volatile long members = stamps.incrementAndGet();
+        long getMembers() {
+            return members;
+        }
+        void membersChanged() {
+            members = stamps.incrementAndGet();
+        }
+        //changes whenever the supertypes of a type change, 
+        //since that affects the supertypes of its subtypes
+        private volatile long hierarchy = stamps.incrementAndGet();
+        long getHierarchy() {
+            return hierarchy;
+        }
+        void hierarchyChanged() {
+            hierarchy = stamps.incrementAndGet();
+            membersChanged();
+        }
+        //changes whenever a package or import is added to,
+        //or removed from, a module, or a package is shared, 
+        //since that affects the packages visible to every 
+        //module which imports it
+        private volatile long packages = stamps.incrementAndGet();
+        long getPackages() {
+            return packages;
+        }
+        void packagesChanged() {
+            packages = stamps.incrementAndGet();
+        }
+    }
+    
+    private final Generations generations = new Generations();
+    
+    Generations getGenerations() {
+        Module lm = languageModule;
+        return lm==null ? generations : lm.generations;
+    }
+    
+    /**
+     * Discard the supertypes and inherited members cached
+     * by the type declarations of this module, and of the
+     * other modules with the same language module.
+     */
+    public void clearHierarchyCaches() {
+        getGenerations().hierarchyChanged();
+    }
 
     public String getVersion() {
         return version;
@@ -90,10 +163,15 @@ public class Module
      * module. 
      */
     public List<Package> getAllPackages() {
-        List<Package> list = new ArrayList<Package>();
-        list.addAll(getPackages());
-        addSharedPackagesOfTransitiveDependencies(list, new HashSet<String>());
-        return list;
+        VisiblePackages visible = getVisiblePackages();
+        List<Package> list = visible.allPackages;
+        if (list==null) {
+            list = new ArrayList<Package>();
+            list.addAll(getPackages());
+            addSharedPackagesOfTransitiveDependencies(list, new HashSet<String>());
+            visible.allPackages = list;
+        }
+        return new ArrayList<Package>(list);
     }
     
     private void addSharedPackagesOfTransitiveDependencies(List<Package> list, 
@@ -148,33 +226,196 @@ public class Module
     }
 
     List<Package> getAllKnownPackages() {
-        List<Package> list = new ArrayList<Package>();
-        list.addAll(packages);
-        for (ModuleImport mi: imports) {
-            list.addAll(mi.getModule().getPackages());
+        VisiblePackages visible = getVisiblePackages();
+        List<Package> list = visible.knownPackages;
+        if (list==null) {
+            list = new ArrayList<Package>();
+            list.addAll(packages);
+            for (ModuleImport mi: imports) {
+                list.addAll(mi.getModule().getPackages());
+            }
+            visible.knownPackages = list;
         }
-        return list;
+        return new ArrayList<Package>(list);
     }
 
     public Package getDirectPackage(String name) {
-        for (Package pkg: packages) {
-            if ( pkg.getQualifiedNameString().equals(name) ) {
-                return pkg;
+        PackageList packages = (PackageList) this.packages;
+        //read the stamp before the packages, so that an
+        //index built from a stale list is never current
+        long modifications = packages.modifications.get();
+        PackageIndex index = packages.index;
+        if (index==null || index.modifications!=modifications) {
+            Map<String,Package> packagesByName = 
+                    new HashMap<String,Package>();
+            for (Package pkg: packages) {
+                String pname = pkg.getQualifiedNameString();
+                if (!packagesByName.containsKey(pname)) {
+                    packagesByName.put(pname, pkg);
+                }
             }
+            index = new PackageIndex(packagesByName, modifications);
+            packages.index = index;
         }
-        return null;
+        return index.packagesByName.get(name);
     }
     
     public Package getPackage(String name) {
-        Package pkg = getDirectPackage(name);
-        if(pkg != null)
-            return pkg;
-        for (ModuleImport mi: imports) {
-            pkg = mi.getModule().getDirectPackage(name);
-            if(pkg != null)
-                return pkg;
+        return getVisiblePackages().get(name);
+    }
+    
+    void packagesChanged() {
+        getGenerations().packagesChanged();
+    }
+    
+    /**
+     * The packages of a module and of the modules it 
+     * imports.
+     */
+    private static final class VisiblePackages {
+        private final long generation;
+        private final Module module;
+        //the first package with each name, searching this
+        //module and then its imports in order, or NONE
+        private final Map<String,Package> packagesByName =
+                new ConcurrentHashMap<String,Package>();
+        private static final Package NONE = new Package();
+        private volatile List<Package> knownPackages;
+        private volatile List<Package> allPackages;
+        
+        private VisiblePackages(Module module, long generation) {
+            this.module = module;
+            this.generation = generation;
+        }
+        
+        private Package get(String name) {
+            if (name==null) {
+                return null;
+            }
+            Package pkg = packagesByName.get(name);
+            if (pkg==null) {
+                pkg = module.getDirectPackage(name);
+                if (pkg==null) {
+                    for (ModuleImport mi: module.imports) {
+                        pkg = mi.getModule().getDirectPackage(name);
+                        if (pkg!=null) {
+                            break;
+                        }
+                    }
+                }
+                packagesByName.put(name, pkg==null ? NONE : pkg);
+            }
+            return pkg==NONE ? null : pkg;
+        }
+    }
+    
+    private volatile VisiblePackages visiblePackages;
+    
+    private VisiblePackages getVisiblePackages() {
+        long generation = getGenerations().getPackages();
+        VisiblePackages result = visiblePackages;
+        if (result==null || result.generation!=generation) {
+            result = new VisiblePackages(this, generation);
+            visiblePackages = result;
+        }
+        return result;
+    }
+    
+    /**
+     * The list of packages of a module, which may be 
+     * modified directly, keeping track of modifications.
+     */
+    private static final class PackageList 
+            extends AbstractList<Package> {
+        private final Module module;
+        //a model loader may add packages while the units 
+        //of the module are being type checked concurrently
+        private final List<Package> packages = 
+                new CopyOnWriteArrayList<Package>();
+        //counts the modifications of the list
+        private final AtomicLong modifications = new AtomicLong();
+        private volatile PackageIndex index;
+        private PackageList(Module module) {
+            this.module = module;
+        }
+        private void changed() {
+            modifications.incrementAndGet();
+            module.packagesChanged();
+        }
+        @Override
+        public Package get(int index) {
+            return packages.get(index);
+        }
+        @Override
+        public int size() {
+            return packages.size();
+        }
+        @Override
+        public Package set(int index, Package pkg) {
+            Package result = packages.set(index, pkg);
+            changed();
+            return result;
+        }
+        @Override
+        public void add(int index, Package pkg) {
+            packages.add(index, pkg);
+            changed();
+        }
+        @Override
+        public Package remove(int index) {
+            Package result = packages.remove(index);
+            changed();
+            return result;
+        }
+        @Override
+        public boolean remove(Object pkg) {
+            boolean result = packages.remove(pkg);
+            if (result) {
+                changed();
+            }
+            return result;
+        }
+        @Override
+        public Iterator<Package> iterator() {
+            //iterate a snapshot of the packages, removing
+            //a package from the list itself
+            final Iterator<Package> snapshot = packages.iterator();
+            return new Iterator<Package>() {
+                private Package last;
+                @Override
+                public boolean hasNext() {
+                    return snapshot.hasNext();
+                }
+                @Override
+                public Package next() {
+                    last = snapshot.next();
+                    return last;
+                }
+                @Override
+                public void remove() {
+                    if (last==null) {
+                        throw new IllegalStateException();
+                    }
+                    PackageList.this.remove(last);
+                    last = null;
+                }
+            };
+        }
+    }
+    
+    /**
+     * The first package with each name in a list of 
+     * packages, as of a certain number of modifications of
+     * the list.
+     */
+    private static final class PackageIndex {
+        private final Map<String,Package> packagesByName;
+        private final long modifications;
+        private PackageIndex(Map<String,Package> packagesByName, 
+                long modifications) {
+            this.packagesByName = packagesByName;
+            this.modifications = modifications;
         }
-        return null;
     }
     
     public Package getRootPackage() {
@@ -262,6 +503,103 @@ public class Module
     public ProducedTypeCache getCache(){
         return cache;
     }
+    
+    public ProducedTypeInterner getInterner(){
+        return interner;
+    }
+
+    private static final AtomicLong moduleIds = new AtomicLong();
+    private final long moduleId = moduleIds.incrementAndGet();
+    private final ConcurrentHashMap<TypeDeclaration,Long> declarationIds = 
+            new ConcurrentHashMap<TypeDeclaration,Long>();
+    private final AtomicInteger nextDeclarationId = new AtomicInteger();
+    
+    /**
+     * Allocate an id for the given type declaration, the
+     * same for all declarations equal to it, and distinct
+     * from the ids of the declarations of other modules.
+     */
+    long getDeclarationId(TypeDeclaration declaration) {
+        Long id = declarationIds.get(declaration);
+        if (id==null) {
+            Long newId = moduleId<<32 | 
+                    nextDeclarationId.incrementAndGet();
+            id = declarationIds.putIfAbsent(declaration, newId);
+            if (id==null) {
+                id = newId;
+            }
+        }
+        return id;
+    }
+    
+    /**
+     * Forget the ids of the type declarations of the given
+     * units, for example, because the units have been
+     * discarded and parsed again.
+     */
+    public void clearDeclarationIds(Set<Unit> units) {
+        Iterator<TypeDeclaration> iter = 
+                declarationIds.keySet().iterator();
+        while (iter.hasNext()) {
+            if (units.contains(iter.next().getUnit())) {
+                iter.remove();
+            }
+        }
+    }
+
+    private volatile Package languagePackage;
+    private final ConcurrentHashMap<String,Declaration> languageDeclarations = 
+            new ConcurrentHashMap<String,Declaration>();
+    
+    /**
+     * Resolve the package {@code ceylon.language} of this 
+     * language module, once the modules have been visited.
+     * Until the package is resolved, 
+     * {@link #getLanguageDeclaration(String)} looks for it
+     * each time it is called.
+     */
+    public void resolveLanguagePackage() {
+        if (languagePackage==null) {
+            languagePackage = getPackage(LANGUAGE_MODULE_NAME);
+        }
+    }
+    
+    /**
+     * The table of the well-known declarations of the 
+     * language module, which the getters of {@link Unit} 
+     * read from. A declaration is only entered once the 
+     * model is complete, that is, while 
+     * {@link ProducedTypeCache caching} is enabled.
+     */
+    Declaration getLanguageDeclaration(String name) {
+        Declaration d = languageDeclarations.get(name);
+        if (d==null) {
+            resolveLanguagePackage();
+            Package languagePackage = this.languagePackage;
+            if (languagePackage!=null) {
+                d = languagePackage.getMember(name, null, false);
+                if (d!=null && d.isShared()) {
+                    if (ProducedTypeCache.isEnabled()) {
+                        languageDeclarations.put(name, d);
+                    }
+                }
+                else {
+                    d = null;
+                }
+            }
+        }
+        return d;
+    }
+    
+    /**
+     * Forget the resolved language module declarations,
+     * for example, because the units declaring them have
+     * been parsed again.
+     */
+    public void clearLanguageDeclarations() {
+        languageDeclarations.clear();
+        languagePackage = null;
+    }
 
     public void clearCache(TypeDeclaration declaration) {
         ProducedTypeCache cache = getCache();
@@ -3,13 +3,14 @@ package com.redhat.ceylon.compiler.typechecker.model;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class NamedArgumentList extends Element implements Scope {
 	
     private ParameterList parameterList;
     private List<String> argumentNames = new ArrayList<String>();
     private int id;
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new CopyOnWriteArrayList<Declaration>();
     
     @Override
     public List<Declaration> getMembers() {
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Package 
         implements ImportableScope, Referenceable, Annotated {
@@ -66,6 +67,11 @@ public class Package
     
     public void setShared(boolean shared) {
         this.shared = shared;
+        //adding a package to a module discards the visible
+        //packages anyway
+        if (module!=null) {
+            module.packagesChanged();
+        }
     }
     
     private List<Declaration> members;
@@ -83,7 +89,9 @@ public class Package
     
     @Override
     public void addMember(Declaration declaration) {
-        members=null;
+        synchronized (units) {
+            members=null;
+        }
     }
     
     private List<Declaration> getMembersInternal() {
@@ -96,7 +104,9 @@ public class Package
                 }
             }
         }
-        return result;
+        //the list is shared by every unit of the module, 
+        //and the DeclarationVisitor adds to it
+        return new CopyOnWriteArrayList<Declaration>(result);
     }
 
     @Override
@@ -138,9 +148,28 @@ public class Package
     @Override
     public Declaration getDirectMember(String name, 
             List<ProducedType> signature, boolean ellipsis) {
-        return lookupMember(getMembers(), 
+        return lookupMember(getMembersNamed(name), 
                 name, signature, ellipsis);
     }
+    
+    private volatile MemberIndex memberIndex;
+    
+    /**
+     * The members of this package, or, if there are many
+     * of them, just the members with the given name.
+     */
+    private List<Declaration> getMembersNamed(String name) {
+        List<Declaration> members = getMembers();
+        MemberIndex index = 
+                MemberIndex.update(memberIndex, members);
+        if (index==null) {
+            return members;
+        }
+        else {
+            memberIndex = index;
+            return index.get(name);
+        }
+    }
 
     @Override
     public ProducedType getDeclaringType(Declaration d) {
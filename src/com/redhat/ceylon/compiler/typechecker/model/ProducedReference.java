@@ -4,7 +4,6 @@ import static com.redhat.ceylon.compiler.typechecker.model.Util.isAbstraction;
 import static com.redhat.ceylon.compiler.typechecker.model.Util.producedType;
 import static java.util.Collections.emptyMap;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -59,7 +58,7 @@ public abstract class ProducedReference {
                             // only make a copy of typeArguments if required
                             if (typeArguments == result) {
                                 // make a copy big enough to fit every type parameter
-                                result = new HashMap<TypeParameter,ProducedType>(typeParameters.size());
+                                result = new TypeArgumentMap(typeParameters.size());
                                 result.putAll(typeArguments);
                             }
                             result.put(pt, dta.substitute(result));
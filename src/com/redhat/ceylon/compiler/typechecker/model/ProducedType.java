@@ -40,6 +40,10 @@ public class ProducedType extends ProducedReference {
 
     // cache
     private int hashCode;
+    // set once the type is canonicalized by a 
+    // ProducedTypeInterner, after which it may
+    // not be modified
+    boolean interned;
     private List<ProducedType> typeArgumentList;
     
     private Map<TypeParameter,SiteVariance> varianceOverrides = 
@@ -80,14 +84,24 @@ public class ProducedType extends ProducedReference {
     }
     
     public void setVariance(TypeParameter param, SiteVariance variance) {
+        checkNotInterned();
         if (varianceOverrides.isEmpty()) {
             varianceOverrides = new HashMap<TypeParameter,SiteVariance>();
         }
         varianceOverrides.put(param, variance);
+        hashCode = 0;
     }
 
     public void setVarianceOverrides(Map<TypeParameter,SiteVariance> varianceOverrides) {
+        checkNotInterned();
         this.varianceOverrides = varianceOverrides;
+        hashCode = 0;
+    }
+    
+    private void checkNotInterned() {
+        if (interned) {
+            throw new IllegalStateException("interned type may not be modified");
+        }
     }
 
     ProducedType() {}
@@ -99,14 +113,30 @@ public class ProducedType extends ProducedReference {
     
     @Override
     void setDeclaration(Declaration declaration) {
+        checkNotInterned();
         if (declaration instanceof TypeDeclaration) {
             super.setDeclaration(declaration);
+            hashCode = 0;
         }
         else {
             throw new IllegalArgumentException("not a TypeDeclaration");
         }
     }
     
+    @Override
+    void setQualifyingType(ProducedType qualifyingType) {
+        checkNotInterned();
+        super.setQualifyingType(qualifyingType);
+        hashCode = 0;
+    }
+    
+    @Override
+    void setTypeArguments(Map<TypeParameter,ProducedType> typeArguments) {
+        checkNotInterned();
+        super.setTypeArguments(typeArguments);
+        hashCode = 0;
+    }
+    
     /**
      * Is this type exactly the same type as the
      * given type? 
@@ -322,8 +352,35 @@ public class ProducedType extends ProducedReference {
      * Is this type a subtype of the given type? 
      */
     public boolean isSubtypeOf(ProducedType type) {
-        return type!=null && resolveAliases()
-                .isSubtypeOfInternal(type.resolveAliases());
+        if (type==null) {
+            return false;
+        }
+        ProducedType subtype = resolveAliases();
+        ProducedType supertype = type.resolveAliases();
+        ProducedTypeCache cache = null;
+        //like getSupertypeInternal(), don't cache types
+        //with use-site variance or an underlying type
+        if (ProducedTypeCache.isEnabled() &&
+                !subtype.hasUnderlyingType() &&
+                !supertype.hasUnderlyingType() &&
+                subtype.collectVarianceOverrides().isEmpty() &&
+                supertype.collectVarianceOverrides().isEmpty()) {
+            Unit unit = supertype.getDeclaration().getUnit();
+            if (unit!=null && unit.getPackage()!=null) {
+                cache = unit.getCache();
+            }
+        }
+        if (cache!=null) {
+            Boolean result = cache.getSubtype(subtype, supertype);
+            if (result!=null) {
+                return result;
+            }
+        }
+        boolean result = subtype.isSubtypeOfInternal(supertype);
+        if (cache!=null) {
+            cache.putSubtype(subtype, supertype, result);
+        }
+        return result;
     }
 
     /**
@@ -763,7 +820,7 @@ public class ProducedType extends ProducedReference {
         return superType;
     }
     
-    private boolean hasUnderlyingType() {
+    boolean hasUnderlyingType() {
         if (getUnderlyingType() != null) {
             return true;
         }
@@ -965,7 +1022,7 @@ public class ProducedType extends ProducedReference {
 			List<ProducedType> types) {
 	    TypeDeclaration result = null;
 		TypeDeclaration td = types.get(0).getDeclaration();
-        for (TypeDeclaration std: td.getSupertypeDeclarations()) {
+        for (TypeDeclaration std: td.getSupertypeDeclarationList()) {
 			if (std instanceof ClassOrInterface && c.satisfies(std)) {
 		    	for (ProducedType ct: types) {
 		    		if (!ct.getDeclaration().inherits(std)) {
@@ -1522,7 +1579,7 @@ public class ProducedType extends ProducedReference {
             Map<TypeParameter,SiteVariance> variances = 
                     new HashMap<TypeParameter,SiteVariance>(varianceOverrides.size());
             Map<TypeParameter,ProducedType> args = 
-                    new HashMap<TypeParameter,ProducedType>(typeArguments.size());
+                    new TypeArgumentMap(typeArguments.size());
             for (Map.Entry<TypeParameter,ProducedType> entry: typeArguments.entrySet()) {
                 TypeParameter param = entry.getKey();
                 ProducedType arg = entry.getValue();
@@ -1765,7 +1822,7 @@ public class ProducedType extends ProducedReference {
                 return Collections.emptyMap();
             }
             Map<TypeParameter, ProducedType> map = 
-                    new HashMap<TypeParameter, ProducedType>(typeArguments.size());
+                    new TypeArgumentMap(typeArguments.size());
             for (Map.Entry<TypeParameter, ProducedType> e: typeArguments.entrySet()) {
                 if (e.getValue()!=null) {
                     map.put(e.getKey(), substitute(e.getValue(), substitutions));
@@ -1975,10 +2032,16 @@ public class ProducedType extends ProducedReference {
     }
     
     public void setUnderlyingType(String underlyingType) {
+        checkNotInterned();
         this.underlyingType = underlyingType;
         // if we have a resolvedAliases cache, update it too
         if (resolvedAliases != null && resolvedAliases != this) {
-            resolvedAliases.setUnderlyingType(underlyingType);
+            if (resolvedAliases.interned) {
+                resolvedAliases = null;
+            }
+            else {
+                resolvedAliases.setUnderlyingType(underlyingType);
+            }
         }
     }
     
@@ -2096,15 +2159,37 @@ public class ProducedType extends ProducedReference {
         return pt;
     }
 
+    /**
+     * A copy of this type, without its underlying type, 
+     * which shares no mutable state with this type, to be
+     * interned by the {@link ProducedTypeInterner}.
+     */
+    ProducedType copyForInterning() {
+        ProducedType pt = new ProducedType();
+        pt.setDeclaration(getDeclaration());
+        pt.setQualifyingType(getQualifyingType());
+        pt.setTypeArguments(new TypeArgumentMap(getTypeArguments()));
+        if (!varianceOverrides.isEmpty()) {
+            pt.varianceOverrides = 
+                    new HashMap<TypeParameter,SiteVariance>(varianceOverrides);
+        }
+        return pt;
+    }
+
     public boolean isRaw() {
         return isRaw;
     }
 
     public void setRaw(boolean isRaw) {
+        checkNotInterned();
         this.isRaw = isRaw;
         // if we have a resolvedAliases cache, update it too
-        if(resolvedAliases != null && resolvedAliases != this)
-            resolvedAliases.setRaw(isRaw);
+        if(resolvedAliases != null && resolvedAliases != this) {
+            if (resolvedAliases.interned)
+                resolvedAliases = null;
+            else
+                resolvedAliases.setRaw(isRaw);
+        }
     }
     
     public ProducedType resolveAliases() {
@@ -2123,7 +2208,7 @@ public class ProducedType extends ProducedReference {
             }
             // mark it as resolved so it doesn't get resolved again
             resolvedAliases.resolvedAliases = resolvedAliases;
-            if (resolvedAliases != this) {
+            if (resolvedAliases != this && !resolvedAliases.interned) {
                 // inherit whatever underlying type we had
                 resolvedAliases.underlyingType = underlyingType;
                 resolvedAliases.isRaw = isRaw;
@@ -2643,6 +2728,9 @@ public class ProducedType extends ProducedReference {
 
     @Override
     public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
         if (obj == null || 
                 !(obj instanceof ProducedType)) {
             return false;
@@ -0,0 +1,77 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.ceylon.compiler.typechecker.context.ProducedTypeCache;
+
+/**
+ * Canonicalizes structurally equal produced types, so
+ * that the types built over and over by the type checker,
+ * for example, {@code Integer?} or {@code {Element*}},
+ * are shared, and compared by identity. There is one
+ * interner per module.
+ *
+ * An interned type may not be modified. Types with an
+ * underlying type, or raw types, are never interned.
+ * Like the {@link ProducedTypeCache}, the interner only
+ * operates once the model is complete, when caching is
+ * enabled.
+ */
+public class ProducedTypeInterner {
+
+    private final ConcurrentHashMap<ProducedType,ProducedType> types =
+            new ConcurrentHashMap<ProducedType,ProducedType>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Return the canonical instance of the given type.
+     * The given type itself is never interned, since the
+     * caller might still hold on to it, so the first time
+     * a type is seen, a copy of it, with its own type 
+     * arguments and variance overrides, becomes the 
+     * canonical instance.
+     */
+    public ProducedType intern(ProducedType type) {
+        if (type==null || type.interned ||
+                !ProducedTypeCache.isEnabled() ||
+                type.isRaw() ||
+                type.hasUnderlyingType()) {
+            return type;
+        }
+        ProducedType canonical = types.get(type);
+        if (canonical!=null) {
+            hits.incrementAndGet();
+            return canonical;
+        }
+        ProducedType copy = type.copyForInterning();
+        copy.interned = true;
+        canonical = types.putIfAbsent(copy, copy);
+        if (canonical!=null) {
+            //another thread got there first
+            hits.incrementAndGet();
+            return canonical;
+        }
+        misses.incrementAndGet();
+        return copy;
+    }
+
+    public void clear() {
+        types.clear();
+    }
+
+    public int getSize() {
+        return types.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+}
@@ -2,12 +2,13 @@ package com.redhat.ceylon.compiler.typechecker.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Specification extends Element implements Scope {
     
     private int id;
     private TypedDeclaration declaration;
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new CopyOnWriteArrayList<Declaration>();
     
     @Override
     public List<Declaration> getMembers() {
@@ -2,10 +2,11 @@ package com.redhat.ceylon.compiler.typechecker.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TypeAlias extends TypeDeclaration {
 
-    private List<Declaration> members = new ArrayList<Declaration>(3);
+    private List<Declaration> members = new CopyOnWriteArrayList<Declaration>();
     private List<Annotation> annotations = new ArrayList<Annotation>(4);
     
     @Override
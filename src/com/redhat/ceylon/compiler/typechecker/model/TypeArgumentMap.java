@@ -0,0 +1,281 @@
+package com.redhat.ceylon.compiler.typechecker.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from type parameters to type arguments, stored
+ * as a pair of arrays, in the order the type parameters
+ * were added, that is, usually, the order of the type
+ * parameters of the outer types followed by the type
+ * parameters of the declaration itself.
+ *
+ * A produced type rarely has more than a handful of type
+ * arguments, so a linear search by identity, falling back
+ * to {@link Declaration#equals(Object)}, is cheaper than
+ * hashing, and the map is much more compact than a
+ * {@link java.util.HashMap}. Equality and hashing follow
+ * the contract of {@link Map}, so it may be freely mixed
+ * with other maps.
+ */
+public class TypeArgumentMap
+        extends AbstractMap<TypeParameter,ProducedType> {
+
+    private static final TypeParameter[] NO_PARAMETERS =
+            new TypeParameter[0];
+    private static final ProducedType[] NO_ARGUMENTS =
+            new ProducedType[0];
+
+    private TypeParameter[] parameters;
+    private ProducedType[] arguments;
+    private int size;
+
+    public TypeArgumentMap() {
+        parameters = NO_PARAMETERS;
+        arguments = NO_ARGUMENTS;
+    }
+
+    public TypeArgumentMap(int capacity) {
+        if (capacity==0) {
+            parameters = NO_PARAMETERS;
+            arguments = NO_ARGUMENTS;
+        }
+        else {
+            parameters = new TypeParameter[capacity];
+            arguments = new ProducedType[capacity];
+        }
+    }
+
+    public TypeArgumentMap(Map<TypeParameter,ProducedType> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    private int indexOf(Object key) {
+        for (int i=0; i<size; i++) {
+            if (parameters[i]==key) {
+                return i;
+            }
+        }
+        if (key!=null) {
+            for (int i=0; i<size; i++) {
+                if (key.equals(parameters[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size==0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key)>=0;
+    }
+
+    @Override
+    public ProducedType get(Object key) {
+        int i = indexOf(key);
+        return i<0 ? null : arguments[i];
+    }
+
+    @Override
+    public ProducedType put(TypeParameter key, ProducedType value) {
+        int i = indexOf(key);
+        if (i>=0) {
+            ProducedType old = arguments[i];
+            arguments[i] = value;
+            return old;
+        }
+        if (size==parameters.length) {
+            int capacity = size<2 ? 2 : size*2;
+            parameters = Arrays.copyOf(parameters, capacity);
+            arguments = Arrays.copyOf(arguments, capacity);
+        }
+        parameters[size] = key;
+        arguments[size] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends TypeParameter,? extends ProducedType> map) {
+        if (map instanceof TypeArgumentMap) {
+            TypeArgumentMap tam = (TypeArgumentMap) map;
+            for (int i=0; i<tam.size; i++) {
+                put(tam.parameters[i], tam.arguments[i]);
+            }
+        }
+        else {
+            super.putAll(map);
+        }
+    }
+
+    @Override
+    public ProducedType remove(Object key) {
+        int i = indexOf(key);
+        if (i<0) {
+            return null;
+        }
+        ProducedType old = arguments[i];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        int moved = size-i-1;
+        if (moved>0) {
+            System.arraycopy(parameters, i+1, parameters, i, moved);
+            System.arraycopy(arguments, i+1, arguments, i, moved);
+        }
+        size--;
+        parameters[size] = null;
+        arguments[size] = null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(parameters, 0, size, null);
+        Arrays.fill(arguments, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i=0; i<size; i++) {
+            TypeParameter key = parameters[i];
+            ProducedType value = arguments[i];
+            hash += (key==null ? 0 : key.hashCode()) ^
+                    (value==null ? 0 : value.hashCode());
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (that==this) {
+            return true;
+        }
+        else if (that instanceof TypeArgumentMap) {
+            TypeArgumentMap tam = (TypeArgumentMap) that;
+            if (tam.size!=size) {
+                return false;
+            }
+            for (int i=0; i<size; i++) {
+                int j = tam.indexOf(parameters[i]);
+                if (j<0 || !eq(arguments[i], tam.arguments[j])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else {
+            return super.equals(that);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<TypeParameter,ProducedType>> entrySet() {
+        return new AbstractSet<Map.Entry<TypeParameter,ProducedType>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+            @Override
+            public Iterator<Map.Entry<TypeParameter,ProducedType>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private class EntryIterator
+            implements Iterator<Map.Entry<TypeParameter,ProducedType>> {
+        private int next = 0;
+        private int last = -1;
+        @Override
+        public boolean hasNext() {
+            return next<size;
+        }
+        @Override
+        public Map.Entry<TypeParameter,ProducedType> next() {
+            if (next>=size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Entry(last);
+        }
+        @Override
+        public void remove() {
+            if (last<0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private class Entry
+            implements Map.Entry<TypeParameter,ProducedType> {
+        private final int index;
+        private Entry(int index) {
+            this.index = index;
+        }
+        @Override
+        public TypeParameter getKey() {
+            return parameters[index];
+        }
+        @Override
+        public ProducedType getValue() {
+            return arguments[index];
+        }
+        @Override
+        public ProducedType setValue(ProducedType value) {
+            ProducedType old = arguments[index];
+            arguments[index] = value;
+            return old;
+        }
+        @Override
+        public boolean equals(Object that) {
+            if (that instanceof Map.Entry) {
+                Map.Entry<?,?> e = (Map.Entry<?,?>) that;
+                return eq(getKey(), e.getKey()) &&
+                        eq(getValue(), e.getValue());
+            }
+            else {
+                return false;
+            }
+        }
+        @Override
+        public int hashCode() {
+            TypeParameter key = getKey();
+            ProducedType value = getValue();
+            return (key==null ? 0 : key.hashCode()) ^
+                    (value==null ? 0 : value.hashCode());
+        }
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private static boolean eq(Object x, Object y) {
+        return x==null ? y==null : x.equals(y);
+    }
+
+}
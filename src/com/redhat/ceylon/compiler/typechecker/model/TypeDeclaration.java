@@ -12,13 +12,17 @@ import static com.redhat.ceylon.compiler.typechecker.model.Util.strictlyBetterMa
 import static java.util.Collections.emptyList;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.ceylon.compiler.typechecker.context.ProducedTypeCache;
 
 public abstract class TypeDeclaration extends Declaration 
         implements ImportableScope, Generic, Cloneable {
@@ -114,6 +118,7 @@ public abstract class TypeDeclaration extends Declaration
 
     public void setExtendedType(ProducedType extendedType) {
         this.extendedType = extendedType;
+        hierarchyChanged();
     }
 
     public List<TypeDeclaration> getSatisfiedTypeDeclarations() {
@@ -134,6 +139,7 @@ public abstract class TypeDeclaration extends Declaration
 
     public void setSatisfiedTypes(List<ProducedType> satisfiedTypes) {
         this.satisfiedTypes = satisfiedTypes;
+        hierarchyChanged();
     }
 
     public List<TypeDeclaration> getCaseTypeDeclarations() {
@@ -158,6 +164,16 @@ public abstract class TypeDeclaration extends Declaration
 
     public void setCaseTypes(List<ProducedType> caseTypes) {
         this.caseTypes = caseTypes;
+        hierarchyChanged();
+    }
+    
+    private void hierarchyChanged() {
+        //unions and intersections are built on the fly, 
+        //and nothing cached depends on them
+        if (!(this instanceof UnionType) && 
+                !(this instanceof IntersectionType)) {
+            clearHierarchyCaches();
+        }
     }
     
     public List<ProducedType> getBrokenSupertypes() {
@@ -242,7 +258,7 @@ public abstract class TypeDeclaration extends Declaration
         }
         else {
             Map<TypeParameter, ProducedType> map = 
-            		new HashMap<TypeParameter, ProducedType>();
+            		new TypeArgumentMap(typeParameters.size());
             for (TypeParameter p: typeParameters) {
                 ProducedType pta = new ProducedType();
                 pta.setDeclaration(p);
@@ -262,7 +278,7 @@ public abstract class TypeDeclaration extends Declaration
             visited.add(this);
             List<Declaration> members = 
                     new ArrayList<Declaration>();
-            for (Declaration d: getMembers()) {
+            for (Declaration d: getMembersNamed(name)) {
                 if (d.getName()!=null && 
                         d.getName().equals(name)) {
                     members.add(d);
@@ -362,12 +378,16 @@ public abstract class TypeDeclaration extends Declaration
      * Does the given declaration inherit the given type?
      */
     public boolean inherits(TypeDeclaration dec) {
-        //TODO: optimize this to avoid walking the
-        //      same supertypes multiple times
         if (this instanceof UnionType) {
             ProducedType st = getType().getSupertype(dec);
             return st!=null && !st.isNothing();
         }
+        SupertypeClosure closure = getSupertypeClosure();
+        if (closure!=null && closure.classesAndInterfaces) {
+            //only a class or interface can be inherited
+            return dec instanceof ClassOrInterface && 
+                    closure.contains(dec.getId());
+        }
         if (this instanceof ClassOrInterface && 
         	dec instanceof ClassOrInterface && 
         		equals(dec)) {
@@ -676,12 +696,83 @@ public abstract class TypeDeclaration extends Declaration
         }
     }
     
+    /**
+     * The stamps of the model this declaration belongs to.
+     */
+    private Module.Generations getGenerations() {
+        Scope scope = getContainer();
+        while (scope!=null && !(scope instanceof Package)) {
+            scope = scope.getContainer();
+        }
+        Module module = scope==null ? 
+                null : ((Package) scope).getModule();
+        return module==null ? 
+                Module.Generations.UNOWNED : 
+                module.getGenerations();
+    }
+    
+    /**
+     * Discard the inherited members cached by the type
+     * declarations of the model this declaration belongs
+     * to.
+     */
+    public void clearInheritedMemberCaches() {
+        getGenerations().membersChanged();
+    }
+    
+    /**
+     * A number which changes whenever the members or the
+     * supertypes of any type declaration of the model this
+     * declaration belongs to change, so that information 
+     * computed from them can be discarded.
+     */
+    public long getMemberGeneration() {
+        return getGenerations().getMembers();
+    }
+    
+    private static class InheritedMembers {
+        private final long generation;
+        private final ConcurrentHashMap<String,SupertypeDeclaration> members = 
+                new ConcurrentHashMap<String,SupertypeDeclaration>();
+        //lookups are passed on to getDirectMember(), which
+        //subclasses may resolve differently when variadic
+        private final ConcurrentHashMap<String,SupertypeDeclaration> variadicMembers = 
+                new ConcurrentHashMap<String,SupertypeDeclaration>();
+        private InheritedMembers(long generation) {
+            this.generation = generation;
+        }
+    }
+    
+    private volatile InheritedMembers inheritedMembers;
+    
     /**
      * Get the supertype which defines the most-refined
-     * member with the given name.
+     * member with the given name. Lookups without a 
+     * signature are cached once the model is complete.
      * @param signature 
      */
-    private SupertypeDeclaration getSupertypeDeclaration(final String name, 
+    private SupertypeDeclaration getSupertypeDeclaration(String name, 
+            List<ProducedType> signature, boolean variadic) {
+        if (signature!=null || !ProducedTypeCache.isEnabled()) {
+            return findSupertypeDeclaration(name, signature, variadic);
+        }
+        long generation = getMemberGeneration();
+        InheritedMembers cache = inheritedMembers;
+        if (cache==null || cache.generation!=generation) {
+            cache = new InheritedMembers(generation);
+            inheritedMembers = cache;
+        }
+        ConcurrentHashMap<String,SupertypeDeclaration> members = 
+                variadic ? cache.variadicMembers : cache.members;
+        SupertypeDeclaration sd = members.get(name);
+        if (sd==null) {
+            sd = findSupertypeDeclaration(name, null, variadic);
+            members.put(name, sd);
+        }
+        return sd;
+    }
+    
+    private SupertypeDeclaration findSupertypeDeclaration(final String name, 
             final List<ProducedType> signature, final boolean variadic) {
         class ExactCriteria implements ProducedType.Criteria {
             @Override
@@ -866,9 +957,145 @@ public abstract class TypeDeclaration extends Declaration
         }
     }
     
+    //ids of type declarations which don't belong to a module
+    private static final AtomicLong unownedIds = new AtomicLong();
+    
+    /**
+     * Discard the supertypes and inherited members cached 
+     * by the type declarations of the model this declaration
+     * belongs to.
+     */
+    public void clearHierarchyCaches() {
+        getGenerations().hierarchyChanged();
+    }
+    
+    private volatile long id;
+    
+    /**
+     * An id for this declaration, shared by declarations
+     * which are equal, and allocated densely within the 
+     * module the declaration belongs to.
+     */
+    long getId() {
+        long result = id;
+        if (result==0) {
+            Scope scope = getContainer();
+            while (scope!=null && !(scope instanceof Package)) {
+                scope = scope.getContainer();
+            }
+            Module module = scope==null ? 
+                    null : ((Package) scope).getModule();
+            result = module==null ? 
+                    unownedIds.incrementAndGet() :
+                    module.getDeclarationId(this);
+            id = result;
+        }
+        return result;
+    }
+    
+    private static class SupertypeClosure {
+        private final long generation;
+        private final List<TypeDeclaration> declarations;
+        //the sorted ids of the classes and interfaces
+        private final long[] ids;
+        //is every supertype a class or interface, so that
+        //the ids are enough to answer inherits()?
+        private final boolean classesAndInterfaces;
+        private SupertypeClosure(long generation, 
+                List<TypeDeclaration> declarations, 
+                boolean classesAndInterfaces) {
+            this.generation = generation;
+            this.declarations = 
+                    Collections.unmodifiableList(declarations);
+            this.classesAndInterfaces = classesAndInterfaces;
+            long[] ids = new long[declarations.size()];
+            int size = 0;
+            for (TypeDeclaration td: declarations) {
+                if (td instanceof ClassOrInterface) {
+                    ids[size++] = td.getId();
+                }
+            }
+            this.ids = Arrays.copyOf(ids, size);
+            Arrays.sort(this.ids);
+        }
+        private boolean contains(long id) {
+            return Arrays.binarySearch(ids, id)>=0;
+        }
+    }
+    
+    private volatile SupertypeClosure supertypeClosure;
+    
+    /**
+     * The supertypes of a class or interface, cached once
+     * the model is complete, or null.
+     */
+    private SupertypeClosure getSupertypeClosure() {
+        if (!(this instanceof ClassOrInterface) || 
+                !ProducedTypeCache.isEnabled()) {
+            return null;
+        }
+        long generation = getGenerations().getHierarchy();
+        SupertypeClosure closure = supertypeClosure;
+        if (closure==null || closure.generation!=generation) {
+            boolean classesAndInterfaces = true;
+            TypeDeclaration etd = getExtendedTypeDeclaration();
+            if (etd!=null) {
+                classesAndInterfaces = 
+                        hasClassOrInterfaceSupertypes(etd);
+            }
+            for (TypeDeclaration std: getSatisfiedTypeDeclarations()) {
+                classesAndInterfaces = classesAndInterfaces &&
+                        hasClassOrInterfaceSupertypes(std);
+            }
+            closure = new SupertypeClosure(generation, 
+                    computeSupertypeDeclarations(), 
+                    classesAndInterfaces);
+            supertypeClosure = closure;
+        }
+        return closure;
+    }
+    
+    private static boolean hasClassOrInterfaceSupertypes(TypeDeclaration td) {
+        if (td instanceof ClassOrInterface) {
+            SupertypeClosure closure = td.getSupertypeClosure();
+            return closure!=null && closure.classesAndInterfaces;
+        }
+        else {
+            return false;
+        }
+    }
+    
+    /**
+     * The supertypes of this type, including this type
+     * itself if it is a class or interface.
+     */
     public List<TypeDeclaration> getSupertypeDeclarations() {
-        //TODO: optimize this to avoid walking the
-        //      same supertypes multiple times
+        SupertypeClosure closure = getSupertypeClosure();
+        if (closure!=null) {
+            return new ArrayList<TypeDeclaration>(closure.declarations);
+        }
+        else {
+            return computeSupertypeDeclarations();
+        }
+    }
+    
+    /**
+     * The supertypes of this type, like 
+     * {@link #getSupertypeDeclarations()}, but for a class
+     * or interface, the list is cached once the model is
+     * complete, and may not be modified.
+     */
+    List<TypeDeclaration> getSupertypeDeclarationList() {
+        SupertypeClosure closure = getSupertypeClosure();
+        if (closure!=null) {
+            return closure.declarations;
+        }
+        else {
+            return computeSupertypeDeclarations();
+        }
+    }
+    
+    private List<TypeDeclaration> computeSupertypeDeclarations() {
         if (this instanceof UnionType) {
             List<TypeDeclaration> ctds = getCaseTypeDeclarations();
             List<TypeDeclaration> result =
@@ -878,7 +1105,7 @@ public abstract class TypeDeclaration extends Declaration
                 //actually the loop is unnecessary, we
                 //only need to consider the first case
                 TypeDeclaration ctd = ctds.get(i);
-                List<TypeDeclaration> ctsts = ctd.getSupertypeDeclarations();
+                List<TypeDeclaration> ctsts = ctd.getSupertypeDeclarationList();
                 for (int j=0; j<ctsts.size(); j++) {
                     TypeDeclaration std = ctsts.get(j);
                     ProducedType st = type.getSupertype(std);
@@ -895,32 +1122,36 @@ public abstract class TypeDeclaration extends Declaration
             ClassOrInterface etd = getExtendedTypeDeclaration();
             List<TypeDeclaration> stds = getSatisfiedTypeDeclarations();
             List<TypeDeclaration> result;
+            //avoid a quadratic search of the result list
+            Set<TypeDeclaration> added;
             if (etd!=null) {
-                List<TypeDeclaration> etsts = etd.getSupertypeDeclarations();
+                List<TypeDeclaration> etsts = etd.getSupertypeDeclarationList();
                 result = new ArrayList<TypeDeclaration>(etsts.size() + stds.size()*2);
+                added = new HashSet<TypeDeclaration>();
                 for (int j=0; j<etsts.size(); j++) {
                     TypeDeclaration st = etsts.get(j);
-                    if (!result.contains(st)) {
+                    if (added.add(st)) {
                         result.add(st);
                     }
                 }
             }
             else {
                 result = new ArrayList<TypeDeclaration>(stds.size()*2);
+                added = new HashSet<TypeDeclaration>();
             }
             // cheaper c-for than foreach
             for (int i=0, l=stds.size(); i<l; i++) {
                 TypeDeclaration std = stds.get(i);
-                List<TypeDeclaration> ststs = std.getSupertypeDeclarations();
+                List<TypeDeclaration> ststs = std.getSupertypeDeclarationList();
                 for (int j=0; j<ststs.size(); j++) {
                     TypeDeclaration st = ststs.get(j);
-                    if (!result.contains(st)) {
+                    if (added.add(st)) {
                         result.add(st);
                     }
                 }
             }
             if (this instanceof ClassOrInterface) {
-                if (!result.contains(this)) {
+                if (added.add(this)) {
                     result.add(this);
                 }
             }
@@ -3,6 +3,7 @@ package com.redhat.ceylon.compiler.typechecker.model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TypeParameter extends TypeDeclaration implements Functional {
 
@@ -15,7 +16,7 @@ public class TypeParameter extends TypeDeclaration implements Functional {
     private boolean defaulted;
     private boolean constrained;
     private Boolean hasNonErasedBounds;
-    private List<Declaration> members = new ArrayList<Declaration>(0);
+    private List<Declaration> members = new CopyOnWriteArrayList<Declaration>();
     private boolean captured;
 
     @Override
@@ -26,6 +27,7 @@ public class TypeParameter extends TypeDeclaration implements Functional {
     @Override
     public void addMember(Declaration declaration) {
         members.add(declaration);
+        clearInheritedMemberCaches();
     }
     
     public boolean isInvariant() {
@@ -17,6 +17,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.redhat.ceylon.compiler.typechecker.context.ProducedTypeCache;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree.Identifier;
@@ -24,13 +26,16 @@ import com.redhat.ceylon.compiler.typechecker.tree.Tree.Identifier;
 public class Unit {
 
 	private Package pkg;
-	private List<Import> imports = new ArrayList<Import>();
+	//the import lists may be read by other units while
+	//this unit is being type checked concurrently
+	private List<Import> imports = new CopyOnWriteArrayList<Import>();
 	private List<Declaration> declarations = new ArrayList<Declaration>();
 	private String filename;
-	private List<ImportList> importLists = new ArrayList<ImportList>();
+	private List<ImportList> importLists = new CopyOnWriteArrayList<ImportList>();
 	private Set<Identifier> unresolvedReferences = new HashSet<Identifier>();
 	private Set<Declaration> duplicateDeclarations = new HashSet<Declaration>();
-    private final Set<String> dependentsOf = new HashSet<String>();
+    private final Set<String> dependentsOf = 
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
     private String fullPath;
     private String relativePath;
     
@@ -238,9 +243,6 @@ public class Unit {
         return getFullPath().hashCode();
     }
     
-    private Module languageModule;
-    private Package languagePackage;
-
     /**
      * Search for a declaration in the language module. 
      */
@@ -248,33 +250,16 @@ public class Unit {
         //all elements in ceylon.language are auto-imported
         //traverse all default module packages provided they 
         //have not been traversed yet
-        Module languageModule = getLanguageModule();
+        Module languageModule = getPackage().getModule().getLanguageModule();
         if (languageModule!=null && languageModule.isAvailable()) {
             if ("Nothing".equals(name)) {
                 return getNothingDeclaration();
             }
-            if (languagePackage==null) {
-                languagePackage = 
-                        languageModule.getPackage(LANGUAGE_MODULE_NAME);
-            }
-            if (languagePackage != null) {
-                Declaration d = 
-                        languagePackage.getMember(name, null, false);
-                if (d != null && d.isShared()) {
-                    return d;
-                }
-            }
+            return languageModule.getLanguageDeclaration(name);
         }
         return null;
     }
     
-    private Module getLanguageModule() {
-        if (languageModule==null) {
-            languageModule = getPackage().getModule().getLanguageModule();
-        }
-        return languageModule;
-    }
-
     /**
      * Search for a declaration in {@code ceylon.language.model} 
      */
@@ -575,12 +560,12 @@ public class Unit {
     			}
     		}
     	}
-    	return result;
+    	return intern(result);
     }
     
     public ProducedType getEmptyType(ProducedType pt) {
         return pt==null ? null :
-            unionType(pt, getType(getEmptyDeclaration()), this);
+            intern(unionType(pt, getType(getEmptyDeclaration()), this));
         /*else if (isEmptyType(pt)) {
             //Null|Null|T == Null|T
             return pt;
@@ -601,13 +586,13 @@ public class Unit {
     
     public ProducedType getPossiblyNoneType(ProducedType pt) {
         return pt==null ? null :
-            unionType(pt, producedType(getSequentialDeclaration(),
-                    getType(getAnythingDeclaration())), this);
+            intern(unionType(pt, producedType(getSequentialDeclaration(),
+                    getType(getAnythingDeclaration())), this));
     }
     
     public ProducedType getOptionalType(ProducedType pt) {
         return pt==null ? null :
-            unionType(pt, getType(getNullDeclaration()), this);
+            intern(unionType(pt, getType(getNullDeclaration()), this));
         /*else if (isOptionalType(pt)) {
             //Null|Null|T == Null|T
             return pt;
@@ -627,25 +612,25 @@ public class Unit {
     }
     
     public ProducedType getSequenceType(ProducedType et) {
-        return producedType(getSequenceDeclaration(), et);
+        return intern(producedType(getSequenceDeclaration(), et));
     }
     
     public ProducedType getSequentialType(ProducedType et) {
-        return producedType(getSequentialDeclaration(), et);
+        return intern(producedType(getSequentialDeclaration(), et));
     }
     
     public ProducedType getIterableType(ProducedType et) {
-        return producedType(getIterableDeclaration(), et, 
-                getType(getNullDeclaration()));
+        return intern(producedType(getIterableDeclaration(), et, 
+                getType(getNullDeclaration())));
     }
 
     public ProducedType getNonemptyIterableType(ProducedType et) {
-        return producedType(getIterableDeclaration(), et, 
-        		getNothingDeclaration().getType());
+        return intern(producedType(getIterableDeclaration(), et, 
+        		getNothingDeclaration().getType()));
     }
 
     public ProducedType getSetType(ProducedType et) {
-        return producedType(getSetDeclaration(), et);
+        return intern(producedType(getSetDeclaration(), et));
     }
 
     /**
@@ -654,7 +639,7 @@ public class Unit {
      * @return The ProducedType corresponding to {@code Iterator<T>}
      */
     public ProducedType getIteratorType(ProducedType et) {
-        return Util.producedType(getIteratorDeclaration(), et);
+        return intern(Util.producedType(getIteratorDeclaration(), et));
     }
 
     /**
@@ -663,7 +648,7 @@ public class Unit {
      * @return The ProducedType corresponding to {@code Span<T>}
      */
     public ProducedType getSpanType(ProducedType rt) {
-        return Util.producedType(getRangeDeclaration(), rt);
+        return intern(Util.producedType(getRangeDeclaration(), rt));
     }
 
     /**
@@ -672,12 +657,12 @@ public class Unit {
      * @return The ProducedType corresponding to {@code SizedRange<T>|[]}
      */
     public ProducedType getMeasureType(ProducedType rt) {
-        return unionType(Util.producedType(getRangeDeclaration(), rt), 
-        		getType(getEmptyDeclaration()), this);
+        return intern(unionType(Util.producedType(getRangeDeclaration(), rt), 
+        		getType(getEmptyDeclaration()), this));
     }
 
     public ProducedType getEntryType(ProducedType kt, ProducedType vt) {
-        return producedType(getEntryDeclaration(), kt, vt);
+        return intern(producedType(getEntryDeclaration(), kt, vt));
     }
 
     public ProducedType getKeyType(ProducedType type) {
@@ -746,8 +731,8 @@ public class Unit {
     }
 
     public ProducedType getDefiniteType(ProducedType pt) {
-        return intersectionType(getType(getObjectDeclaration()), 
-                pt, pt.getDeclaration().getUnit());
+        return intern(intersectionType(getType(getObjectDeclaration()), 
+                pt, pt.getDeclaration().getUnit()));
         /*if (pt.getDeclaration().equals(getAnythingDeclaration())) {
             return getObjectDeclaration().getType();
         }
@@ -757,9 +742,9 @@ public class Unit {
     }
 
     public ProducedType getNonemptyType(ProducedType pt) {
-        return intersectionType(producedType(getSequenceDeclaration(), 
+        return intern(intersectionType(producedType(getSequenceDeclaration(), 
                 getSequentialElementType(pt)), pt, 
-                pt.getDeclaration().getUnit());
+                pt.getDeclaration().getUnit()));
         /*if (pt.getDeclaration().equals(getAnythingDeclaration())) {
             return getObjectDeclaration().getType();
         }
@@ -1436,4 +1421,18 @@ public class Unit {
         return module != null ? module.getCache() : null;
     }
     
+    public ProducedTypeInterner getInterner() {
+        Module module = getPackage().getModule();
+        return module != null ? module.getInterner() : null;
+    }
+    
+    /**
+     * Return the canonical instance of a type built by
+     * one of the methods of this unit.
+     */
+    private ProducedType intern(ProducedType type) {
+        ProducedTypeInterner interner = getInterner();
+        return interner != null ? interner.intern(type) : type;
+    }
+    
 }
@@ -6,9 +6,11 @@ import static java.util.Collections.singletonList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Util {
     
@@ -496,7 +498,7 @@ public class Util {
             ProducedType receivingType, List<ProducedType> typeArguments,
             List<TypeParameter> typeParameters, int count) {
 	    Map<TypeParameter,ProducedType> map = 
-	    		new HashMap<TypeParameter,ProducedType>(count);
+	    		new TypeArgumentMap(count);
 	    ProducedType dt = receivingType;
 	    while (dt!=null) {
 	    	map.putAll(dt.getTypeArguments());
@@ -541,7 +543,7 @@ public class Util {
         }
         else {
         	Map<TypeParameter,ProducedType> map = 
-        			new HashMap<TypeParameter,ProducedType>(count);
+        			new TypeArgumentMap(count);
         	dt = receivingType;
         	while (dt!=null) {
         		map.putAll(dt.getTypeArguments());
@@ -586,9 +588,15 @@ public class Util {
         }
         else if (pt.isWellDefined()) {
             boolean add=true;
+            InheritanceFilter filter = list.size()>1 ?
+                    InheritanceFilter.create(pt, null) : null;
             // cheaper c-for than foreach
             for (int i=0;i<list.size();i++) {
                 ProducedType t = list.get(i);
+                if (filter!=null && filter.unrelated(t)) {
+                    //neither type can be a subtype of the other
+                    continue;
+                }
                 if (pt.isSubtypeOf(t)) {
                     add=false;
                     break;
@@ -637,10 +645,11 @@ public class Util {
             //    Baz of Foo | Bar 
             //(the intersection of disjoint types is empty)
             
+            List<TypeDeclaration> supertypes = null;
             // cheaper c-for than foreach
             if (!list.isEmpty() && reduceDisjointTypes) {
-                List<TypeDeclaration> supertypes = 
-                        pt.getDeclaration().getSupertypeDeclarations();
+                supertypes = 
+                        pt.getDeclaration().getSupertypeDeclarationList();
                 for (int i=0, l=supertypes.size(); i<l; i++) {
                     TypeDeclaration supertype = supertypes.get(i);
                     List<TypeDeclaration> ctds = 
@@ -679,9 +688,22 @@ public class Util {
             
             Boolean add = pt.isWellDefined();
             if (add) {
+                InheritanceFilter filter = list.size()>1 ?
+                        InheritanceFilter.create(pt, supertypes) : null;
                 // cheaper c-for than foreach
                 for (int i=0; i<list.size(); i++) {
                     ProducedType t = list.get(i);
+                    if (filter!=null && filter.unrelated(t)) {
+                        //neither type can be a subtype of the
+                        //other, but their intersection might
+                        //still be uninhabitable
+                        if (haveUninhabitableIntersection(pt,t, unit)) {
+                            list.clear();
+                            list.add(unit.getNothingDeclaration().getType());
+                            return;
+                        }
+                        continue;
+                    }
                     if (pt.isSupertypeOf(t)) {
                         add = false;
                         break;
@@ -732,6 +754,82 @@ public class Util {
         }
     }
 
+    /**
+     * Rules out, without a full subtype check, pairs of
+     * class or interface types which can't be subtypes of
+     * one another, because their declarations are unrelated
+     * by inheritance. The answer is remembered for each 
+     * declaration, since the types in a union or 
+     * intersection often share a declaration.
+     */
+    private static final class InheritanceFilter {
+        
+        private final TypeDeclaration declaration;
+        private final Set<TypeDeclaration> supertypes;
+        private final Map<TypeDeclaration,Boolean> unrelated =
+                new HashMap<TypeDeclaration,Boolean>();
+        
+        private InheritanceFilter(TypeDeclaration declaration, 
+                List<TypeDeclaration> supertypes) {
+            this.declaration = declaration;
+            this.supertypes = 
+                    new HashSet<TypeDeclaration>(supertypes);
+        }
+        
+        /**
+         * @param supertypes the supertype declarations of
+         *        the given type, if already known, or null
+         * @return null if the given type is not a simple
+         *         class or interface type
+         */
+        static InheritanceFilter create(ProducedType pt, 
+                List<TypeDeclaration> supertypes) {
+            TypeDeclaration dec = pt.getDeclaration();
+            //the subtype check would fail on the undecidable
+            //depth, so don't skip over it
+            if (!isFilterable(dec) || 
+                    ProducedType.depth.get()>=50) {
+                return null;
+            }
+            if (supertypes==null) {
+                supertypes = dec.getSupertypeDeclarationList();
+            }
+            return new InheritanceFilter(dec, supertypes);
+        }
+        
+        private static boolean isFilterable(TypeDeclaration dec) {
+            return dec instanceof ClassOrInterface && 
+                    !dec.isAlias();
+        }
+        
+        /**
+         * Is the given type certainly neither a subtype nor
+         * a supertype of the type this filter was created 
+         * for?
+         */
+        boolean unrelated(ProducedType t) {
+            TypeDeclaration dec = t.getDeclaration();
+            if (!isFilterable(dec)) {
+                return false;
+            }
+            Boolean result = unrelated.get(dec);
+            if (result==null) {
+                //an interface type is a subtype of the
+                //root classes, so be conservative about
+                //mixing classes with interfaces
+                boolean mixed = 
+                        dec instanceof Class != 
+                        declaration instanceof Class;
+                result = !mixed &&
+                        !supertypes.contains(dec) && 
+                        !dec.inherits(declaration);
+                unrelated.put(dec, result);
+            }
+            return result;
+        }
+        
+    }
+
     /**
      * The meet of two classes unrelated by inheritance,
      * or of Null with an interface type is empty. The meet
@@ -900,8 +998,9 @@ public class Util {
     private static boolean hasEmptyIntersectionOfInvariantInstantiations(
             ProducedType p, ProducedType q) {
 //        if (!p.containsTypeParameters() && !q.containsTypeParameters()) {
-            List<TypeDeclaration> stds = p.getDeclaration().getSupertypeDeclarations();
-            stds.retainAll(q.getDeclaration().getSupertypeDeclarations());
+            List<TypeDeclaration> stds = new ArrayList<TypeDeclaration>(
+                    p.getDeclaration().getSupertypeDeclarationList());
+            stds.retainAll(q.getDeclaration().getSupertypeDeclarationList());
             for (TypeDeclaration std: stds) {
                 ProducedType pst = null;
                 ProducedType qst = null;
@@ -1411,6 +1510,7 @@ public class Util {
     }
 
     public static void clearProducedTypeCache(TypeDeclaration decl) {
+        decl.clearHierarchyCaches();
         Module module = getModule(decl);
         if(module != null){
             module.clearCache(decl);
@@ -1421,7 +1521,7 @@ public class Util {
             List<ProducedType> signature, Declaration root,
             TypeDeclaration bottom, TypeDeclaration top) {
         List<Declaration> result = new ArrayList<Declaration>(2);
-        for (TypeDeclaration std: bottom.getSupertypeDeclarations()) {
+        for (TypeDeclaration std: bottom.getSupertypeDeclarationList()) {
             if (std.inherits(top) && !std.equals(bottom)) {
                 Declaration member = std.getDirectMember(name, signature, false);
                 if (member!=null && !isAbstraction(member)) {
@@ -0,0 +1,226 @@
+package com.redhat.ceylon.compiler.typechecker.parser;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+
+/**
+ * A read-only list of the tokens of a source file which
+ * stores the off-channel tokens, that is, the whitespace
+ * and comments, in columns of ints which share the
+ * character stream the tokens were lexed from, instead of
+ * as one {@link CommonToken} object per token.
+ *
+ * Tokens on the default channel are the ones the parser
+ * consumed, and may be referenced by the nodes of the
+ * syntax tree, so they are kept as they are, and
+ * {@link #get(int)}, {@link #indexOf(Object)} and
+ * {@link #contains(Object)} find the very same instances
+ * as the tree. An off-channel token is created on demand,
+ * and the same instance is returned again for as long as
+ * it is reachable from elsewhere.
+ *
+ * Tokens whose text is not simply the characters between
+ * their start and stop indexes, because the lexer has
+ * replaced it, keep their text.
+ */
+public class PackedTokenList extends AbstractList<CommonToken>
+        implements RandomAccess {
+
+    private final CharStream input;
+    //the tokens on the default channel, and null for the
+    //packed tokens
+    private final CommonToken[] tokens;
+    //the indexes of the packed tokens in the list, in
+    //order, and their columns
+    private final int[] indexes;
+    //the token type in the high bits, the channel in the
+    //low byte
+    private final int[] typesAndChannels;
+    private final int[] starts;
+    private final int[] stops;
+    private final int[] lines;
+    private final int[] columns;
+    //the text of packed tokens whose text was replaced,
+    //by index in the list
+    private final Map<Integer,String> texts =
+            new HashMap<Integer,String>();
+    //the packed tokens created so far, allocated lazily
+    private WeakReference<CommonToken>[] created;
+
+    private PackedTokenList(CharStream input, int size, int packed) {
+        this.input = input;
+        tokens = new CommonToken[size];
+        indexes = new int[packed];
+        typesAndChannels = new int[packed];
+        starts = new int[packed];
+        stops = new int[packed];
+        lines = new int[packed];
+        columns = new int[packed];
+    }
+
+    /**
+     * Pack the given tokens, if they were all lexed from
+     * the same character stream, in order, or else just
+     * copy them.
+     */
+    public static List<CommonToken> pack(List<? extends CommonToken> tokens) {
+        if (tokens.isEmpty()) {
+            return new ArrayList<CommonToken>(tokens);
+        }
+        CharStream input = tokens.get(0).getInputStream();
+        if (input==null) {
+            return new ArrayList<CommonToken>(tokens);
+        }
+        int size = tokens.size();
+        int packed = 0;
+        for (int i=0; i<size; i++) {
+            CommonToken token = tokens.get(i);
+            int channel = token.getChannel();
+            if (token.getInputStream()!=input ||
+                    token.getTokenIndex()!=i ||
+                    channel<0 || channel>0xff) {
+                return new ArrayList<CommonToken>(tokens);
+            }
+            if (channel!=Token.DEFAULT_CHANNEL) {
+                packed++;
+            }
+        }
+        int length = input.size();
+        PackedTokenList result =
+                new PackedTokenList(input, size, packed);
+        int p = 0;
+        for (int i=0; i<size; i++) {
+            CommonToken token = tokens.get(i);
+            int channel = token.getChannel();
+            if (channel==Token.DEFAULT_CHANNEL) {
+                result.tokens[i] = token;
+                continue;
+            }
+            int start = token.getStartIndex();
+            int stop = token.getStopIndex();
+            result.indexes[p] = i;
+            result.typesAndChannels[p] =
+                    token.getType()<<8 | channel;
+            result.starts[p] = start;
+            result.stops[p] = stop;
+            result.lines[p] = token.getLine();
+            result.columns[p] = token.getCharPositionInLine();
+            String text = token.getText();
+            if (text==null ||
+                    !text.equals(text(input, length, start, stop))) {
+                result.texts.put(i, text);
+            }
+            p++;
+        }
+        return result;
+    }
+
+    //the text of a token that was not replaced, as
+    //computed by CommonToken.getText()
+    private static String text(CharStream input, int length,
+            int start, int stop) {
+        if (start<length && stop<length) {
+            return input.substring(start, stop);
+        }
+        else {
+            return "<EOF>";
+        }
+    }
+
+    @Override
+    public int size() {
+        return tokens.length;
+    }
+
+    @Override
+    public CommonToken get(int index) {
+        CommonToken token = tokens[index];
+        if (token!=null) {
+            return token;
+        }
+        return unpacked(index);
+    }
+
+    private synchronized CommonToken unpacked(int index) {
+        int p = Arrays.binarySearch(indexes, index);
+        CommonToken token = created(p);
+        if (token==null) {
+            token = unpack(index, p);
+            if (created==null) {
+                @SuppressWarnings("unchecked")
+                WeakReference<CommonToken>[] refs =
+                        new WeakReference[indexes.length];
+                created = refs;
+            }
+            created[p] = new WeakReference<CommonToken>(token);
+        }
+        return token;
+    }
+
+    private synchronized CommonToken created(int p) {
+        if (created==null) {
+            return null;
+        }
+        WeakReference<CommonToken> ref = created[p];
+        return ref==null ? null : ref.get();
+    }
+
+    private CommonToken unpack(int index, int p) {
+        int typeAndChannel = typesAndChannels[p];
+        CommonToken token = new CommonToken(input,
+                typeAndChannel>>8, typeAndChannel & 0xff,
+                starts[p], stops[p]);
+        token.setLine(lines[p]);
+        token.setCharPositionInLine(columns[p]);
+        token.setTokenIndex(index);
+        if (!texts.isEmpty()) {
+            Integer key = index;
+            if (texts.containsKey(key)) {
+                token.setText(texts.get(key));
+            }
+        }
+        return token;
+    }
+
+    /**
+     * The index of the given token, found from its token
+     * index without creating any tokens.
+     */
+    @Override
+    public int indexOf(Object o) {
+        if (o instanceof CommonToken) {
+            int index = ((CommonToken) o).getTokenIndex();
+            if (index>=0 && index<tokens.length) {
+                CommonToken token = tokens[index];
+                if (token==null) {
+                    token = created(Arrays.binarySearch(indexes, index));
+                }
+                if (token==o) {
+                    return index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o)>=0;
+    }
+
+}
@@ -0,0 +1,444 @@
+package com.redhat.ceylon.compiler.typechecker.parser;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.BaseRecognizer;
+import org.antlr.runtime.IntStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.debug.Profiler;
+
+/**
+ * Collects statistics about each rule and each predicate
+ * of a parser generated by ANTLR with the option
+ * <tt>-profile</tt>, over any number of parses:
+ *
+ * <ul>
+ * <li>the number of invocations of each rule, and how many
+ *     of them happened while backtracking,</li>
+ * <li>the number of invocations of each memoized rule that
+ *     were answered from the memo,</li>
+ * <li>the number of tokens matched by each rule itself,
+ *     not by the rules it invokes, and how many of them
+ *     were matched while backtracking, and so must be
+ *     scanned again once the parser rewinds,</li>
+ * <li>the time spent in each rule, both in the rule itself
+ *     and including the rules it invokes,</li>
+ * <li>the number of evaluations of each syntactic predicate,
+ *     how many succeeded, the tokens they scanned, and the
+ *     time they took, and the evaluations of each semantic
+ *     predicate.</li>
+ * </ul>
+ *
+ * Syntactic predicates are identified by the line and
+ * column in the grammar where they begin, along with the
+ * rule in which they occur. Times are measured from one
+ * debug event to the next, and so include the cost of
+ * generating and handling the events.
+ *
+ * Unlike {@link Profiler}, this profiler does not record
+ * each decision event, so it may be used over a large
+ * corpus.
+ *
+ * @see main.MainForParserProfile
+ */
+public class ParserProfiler extends Profiler {
+
+    /**
+     * The statistics of a rule.
+     */
+    public static class RuleStats {
+        private final String name;
+        private long invocations;
+        private long backtrackingInvocations;
+        private long memoHits;
+        private long tokens;
+        private long rescannedTokens;
+        private long selfTime;
+        private long totalTime;
+        //the number of activations on the stack, so that
+        //the total time of a recursive rule is counted once
+        private int active;
+        RuleStats(String name) {
+            this.name = name;
+        }
+        public String getName() {
+            return name;
+        }
+        public long getInvocations() {
+            return invocations;
+        }
+        public long getBacktrackingInvocations() {
+            return backtrackingInvocations;
+        }
+        public long getMemoHits() {
+            return memoHits;
+        }
+        /**
+         * The number of tokens matched by the rule itself.
+         */
+        public long getTokens() {
+            return tokens;
+        }
+        /**
+         * The number of tokens matched by the rule itself
+         * while backtracking.
+         */
+        public long getRescannedTokens() {
+            return rescannedTokens;
+        }
+        /**
+         * The time, in nanoseconds, spent in the rule,
+         * excluding the rules it invokes.
+         */
+        public long getSelfTime() {
+            return selfTime;
+        }
+        /**
+         * The time, in nanoseconds, spent in the rule,
+         * including the rules it invokes.
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+    }
+
+    /**
+     * The statistics of a predicate.
+     */
+    public static class PredicateStats {
+        private final String description;
+        private final String rule;
+        private long evaluations;
+        private long successes;
+        private long rescannedTokens;
+        private long time;
+        PredicateStats(String description, String rule) {
+            this.description = description;
+            this.rule = rule;
+        }
+        /**
+         * The location of a syntactic predicate in the
+         * grammar, or the text of a semantic predicate.
+         */
+        public String getDescription() {
+            return description;
+        }
+        /**
+         * The rule in which the predicate occurs.
+         */
+        public String getRule() {
+            return rule;
+        }
+        public long getEvaluations() {
+            return evaluations;
+        }
+        public long getSuccesses() {
+            return successes;
+        }
+        public long getRescannedTokens() {
+            return rescannedTokens;
+        }
+        /**
+         * The time, in nanoseconds, spent evaluating the
+         * predicate.
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    private final Map<String,RuleStats> rules =
+            new HashMap<String,RuleStats>();
+    private final Map<String,PredicateStats> predicates =
+            new HashMap<String,PredicateStats>();
+
+    private final List<RuleStats> ruleStack =
+            new ArrayList<RuleStats>();
+    private final List<Long> ruleStartTimes = new ArrayList<Long>();
+    //the syntactic predicates being evaluated, with null
+    //for a predicate which has not yet reported its location
+    private final List<PredicateStats> predicateStack =
+            new ArrayList<PredicateStats>();
+    private final List<Long> predicateStartTimes = new ArrayList<Long>();
+    private long lastEventTime;
+
+    private long tokens;
+    private long rescannedTokens;
+    private long time;
+
+    public ParserProfiler() {
+        super(null);
+    }
+
+    private RuleStats getRuleStats(String ruleName) {
+        RuleStats stats = rules.get(ruleName);
+        if (stats==null) {
+            stats = new RuleStats(ruleName);
+            rules.put(ruleName, stats);
+        }
+        return stats;
+    }
+
+    private PredicateStats getPredicateStats(String description) {
+        PredicateStats stats = predicates.get(description);
+        if (stats==null) {
+            String rule = ruleStack.isEmpty() ?
+                    null : currentRule().name;
+            stats = new PredicateStats(description, rule);
+            predicates.put(description, stats);
+        }
+        return stats;
+    }
+
+    private RuleStats currentRule() {
+        return ruleStack.get(ruleStack.size()-1);
+    }
+
+    private boolean isBacktracking() {
+        return !predicateStack.isEmpty();
+    }
+
+    //charge the time since the last event to the rule
+    //on top of the stack
+    private long tick() {
+        long now = System.nanoTime();
+        if (!ruleStack.isEmpty()) {
+            currentRule().selfTime += now-lastEventTime;
+        }
+        lastEventTime = now;
+        return now;
+    }
+
+    @Override
+    public void enterRule(String grammarFileName, String ruleName) {
+        long now = tick();
+        RuleStats stats = getRuleStats(ruleName);
+        stats.invocations++;
+        if (isBacktracking()) {
+            stats.backtrackingInvocations++;
+        }
+        stats.active++;
+        ruleStack.add(stats);
+        ruleStartTimes.add(now);
+    }
+
+    @Override
+    public void exitRule(String grammarFileName, String ruleName) {
+        long now = tick();
+        int top = ruleStack.size()-1;
+        RuleStats stats = ruleStack.remove(top);
+        long start = ruleStartTimes.remove(top);
+        if (--stats.active==0) {
+            stats.totalTime += now-start;
+        }
+        if (ruleStack.isEmpty()) {
+            time += now-start;
+        }
+    }
+
+    @Override
+    public void examineRuleMemoization(IntStream input, int ruleIndex,
+            int stopIndex, String ruleName) {
+        if (stopIndex!=BaseRecognizer.MEMO_RULE_UNKNOWN) {
+            getRuleStats(ruleName).memoHits++;
+        }
+    }
+
+    @Override
+    public void memoize(IntStream input, int ruleIndex,
+            int ruleStartIndex, String ruleName) {}
+
+    @Override
+    public void location(int line, int pos) {
+        //the first location reported while evaluating a
+        //syntactic predicate is where it begins
+        int top = predicateStack.size()-1;
+        if (top>=0 && predicateStack.get(top)==null) {
+            PredicateStats stats =
+                    getPredicateStats(line + ":" + pos);
+            stats.evaluations++;
+            predicateStack.set(top, stats);
+        }
+    }
+
+    @Override
+    public void enterDecision(int decisionNumber, boolean couldBacktrack) {}
+
+    @Override
+    public void exitDecision(int decisionNumber) {}
+
+    @Override
+    public void consumeToken(Token token) {
+        if (!ruleStack.isEmpty()) {
+            currentRule().tokens++;
+        }
+        if (isBacktracking()) {
+            if (!ruleStack.isEmpty()) {
+                currentRule().rescannedTokens++;
+            }
+            for (PredicateStats stats: predicateStack) {
+                if (stats!=null) {
+                    stats.rescannedTokens++;
+                }
+            }
+            rescannedTokens++;
+        }
+        else {
+            tokens++;
+        }
+    }
+
+    @Override
+    public void consumeHiddenToken(Token token) {}
+
+    @Override
+    public void LT(int i, Token t) {}
+
+    @Override
+    public void beginBacktrack(int level) {
+        predicateStack.add(null);
+        predicateStartTimes.add(tick());
+    }
+
+    @Override
+    public void endBacktrack(int level, boolean successful) {
+        long now = tick();
+        int top = predicateStack.size()-1;
+        PredicateStats stats = predicateStack.remove(top);
+        long start = predicateStartTimes.remove(top);
+        if (stats!=null) {
+            stats.time += now-start;
+            if (successful) {
+                stats.successes++;
+            }
+        }
+    }
+
+    @Override
+    public void mark(int i) {}
+
+    @Override
+    public void rewind(int i) {}
+
+    @Override
+    public void rewind() {}
+
+    @Override
+    public void recognitionException(RecognitionException e) {}
+
+    @Override
+    public void semanticPredicate(boolean result, String predicate) {
+        PredicateStats stats = getPredicateStats("{" + predicate + "}?");
+        stats.evaluations++;
+        if (result) {
+            stats.successes++;
+        }
+    }
+
+    @Override
+    public void terminate() {}
+
+    /**
+     * The statistics of every rule that was invoked.
+     */
+    public List<RuleStats> getRuleStats() {
+        return new ArrayList<RuleStats>(rules.values());
+    }
+
+    /**
+     * The statistics of every predicate that was evaluated.
+     */
+    public List<PredicateStats> getPredicateStats() {
+        return new ArrayList<PredicateStats>(predicates.values());
+    }
+
+    /**
+     * The number of tokens consumed, not counting tokens
+     * consumed while backtracking.
+     */
+    public long getTokens() {
+        return tokens;
+    }
+
+    /**
+     * The number of tokens consumed while backtracking.
+     */
+    public long getRescannedTokens() {
+        return rescannedTokens;
+    }
+
+    /**
+     * The time, in nanoseconds, spent parsing.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Print the rules, in descending order of the time
+     * spent in the rule itself, and the predicates, in
+     * descending order of the tokens they scanned.
+     *
+     * @param limit the maximum number of rules and of
+     *        predicates to print
+     */
+    public void printReport(PrintStream out, int limit) {
+        out.println(String.format("%d tokens parsed in %.1f ms, %d tokens rescanned while backtracking (%.2f per token)",
+                tokens, millis(time), rescannedTokens,
+                tokens==0 ? 0.0 : (double) rescannedTokens/tokens));
+
+        List<RuleStats> ruleStats = getRuleStats();
+        Collections.sort(ruleStats, new Comparator<RuleStats>() {
+            @Override
+            public int compare(RuleStats x, RuleStats y) {
+                return compareLongs(y.selfTime, x.selfTime);
+            }
+        });
+        out.println();
+        out.println(String.format("%-36s %10s %10s %8s %10s %10s %10s %10s",
+                "rule", "calls", "backtrack", "memo", "tokens",
+                "rescanned", "self ms", "total ms"));
+        for (RuleStats stats: ruleStats.subList(0, Math.min(limit, ruleStats.size()))) {
+            out.println(String.format("%-36s %10d %10d %8d %10d %10d %10.1f %10.1f",
+                    stats.name, stats.invocations,
+                    stats.backtrackingInvocations, stats.memoHits,
+                    stats.tokens, stats.rescannedTokens,
+                    millis(stats.selfTime), millis(stats.totalTime)));
+        }
+
+        List<PredicateStats> predicateStats = getPredicateStats();
+        Collections.sort(predicateStats, new Comparator<PredicateStats>() {
+            @Override
+            public int compare(PredicateStats x, PredicateStats y) {
+                int result = compareLongs(y.rescannedTokens, x.rescannedTokens);
+                return result==0 ? compareLongs(y.evaluations, x.evaluations) : result;
+            }
+        });
+        out.println();
+        out.println(String.format("%-20s %-36s %10s %10s %10s %10s",
+                "predicate", "rule", "evaluated", "succeeded",
+                "rescanned", "ms"));
+        for (PredicateStats stats: predicateStats.subList(0, Math.min(limit, predicateStats.size()))) {
+            out.println(String.format("%-20s %-36s %10d %10d %10d %10.1f",
+                    stats.description, stats.rule, stats.evaluations,
+                    stats.successes, stats.rescannedTokens,
+                    millis(stats.time)));
+        }
+    }
+
+    private static int compareLongs(long x, long y) {
+        return x<y ? -1 : (x==y ? 0 : 1);
+    }
+
+    private static double millis(long nanos) {
+        return nanos/1.0e6;
+    }
+
+}
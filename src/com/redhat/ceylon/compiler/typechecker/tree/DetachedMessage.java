@@ -0,0 +1,50 @@
+package com.redhat.ceylon.compiler.typechecker.tree;
+
+import com.redhat.ceylon.compiler.typechecker.analyzer.UsageWarning;
+
+/**
+ * A copy of an error or warning which no longer refers
+ * to the node of the AST it relates to, so that it may
+ * outlive the AST.
+ */
+public class DetachedMessage implements Message {
+
+    private final String message;
+    private final int code;
+    private final int line;
+    private final boolean warning;
+
+    public DetachedMessage(Message message) {
+        this.message = message.getMessage();
+        this.code = message.getCode();
+        this.line = message.getLine();
+        this.warning = message instanceof UsageWarning;
+    }
+
+    @Override
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public int getCode() {
+        return code;
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Was the original message a {@link UsageWarning}?
+     */
+    public boolean isWarning() {
+        return warning;
+    }
+
+    @Override
+    public String toString() {
+        return message;
+    }
+}
@@ -0,0 +1,76 @@
+package com.redhat.ceylon.compiler.typechecker.util;
+
+import com.redhat.ceylon.compiler.typechecker.analyzer.UsageWarning;
+import com.redhat.ceylon.compiler.typechecker.model.Declaration;
+import com.redhat.ceylon.compiler.typechecker.model.Unit;
+import com.redhat.ceylon.compiler.typechecker.tree.Message;
+import com.redhat.ceylon.compiler.typechecker.tree.Node;
+import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
+
+/**
+ * Records the visited unit as a dependent of each unit
+ * declaring a type or member it refers to, in
+ * {@link Unit#getDependentsOf()}, and notes whether the
+ * visited unit has errors.
+ */
+public class UnitDependencyVisitor extends Visitor {
+
+    private final Unit unit;
+    private boolean errors = false;
+
+    public UnitDependencyVisitor(Unit unit) {
+        this.unit = unit;
+    }
+
+    private void dependsOn(Declaration d) {
+        if (d!=null) {
+            Unit u = d.getUnit();
+            if (u!=null && u!=unit) {
+                u.getDependentsOf().add(unit.getFullPath());
+            }
+        }
+    }
+
+    public boolean hasErrors() {
+        return errors;
+    }
+
+    @Override
+    public void visit(Tree.SimpleType that) {
+        super.visit(that);
+        dependsOn(that.getDeclarationModel());
+    }
+
+    @Override
+    public void visit(Tree.MemberOrTypeExpression that) {
+        super.visit(that);
+        dependsOn(that.getDeclaration());
+    }
+
+    @Override
+    public void visit(Tree.ImportMemberOrType that) {
+        super.visit(that);
+        dependsOn(that.getDeclarationModel());
+    }
+
+    @Override
+    public void visit(Tree.MetaLiteral that) {
+        super.visit(that);
+        dependsOn(that.getDeclaration());
+    }
+
+    @Override
+    public void visitAny(Node that) {
+        if (!errors) {
+            for (Message m: that.getErrors()) {
+                if (!(m instanceof UsageWarning)) {
+                    errors = true;
+                    break;
+                }
+            }
+        }
+        super.visitAny(that);
+    }
+
+}
@@ -0,0 +1,84 @@
+package main;
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.runtime.ANTLRFileStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.debug.DebugEventListener;
+
+import com.redhat.ceylon.compiler.typechecker.parser.CeylonLexer;
+import com.redhat.ceylon.compiler.typechecker.parser.CeylonParser;
+import com.redhat.ceylon.compiler.typechecker.parser.ParserProfiler;
+
+/**
+ * Parses the source files in the given directories, by
+ * default <tt>test/main</tt>, and reports the invocations,
+ * backtracking, and time of each rule and predicate of the
+ * parser. The parser must be generated with the ANTLR option
+ * <tt>-profile</tt>, as by the Ant target
+ * <tt>profile.parser</tt>, which runs this class.
+ *
+ * The number of rules and predicates reported may be set
+ * using <tt>-Dlimit=n</tt>.
+ *
+ * @see ParserProfiler
+ */
+public class MainForParserProfile {
+
+    public static void main(String[] args) throws Exception {
+        Constructor<CeylonParser> constructor;
+        try {
+            constructor = CeylonParser.class.getConstructor(TokenStream.class,
+                    DebugEventListener.class);
+        }
+        catch (NoSuchMethodException e) {
+            System.err.println("The parser was not generated for profiling: use 'ant profile.parser'");
+            System.exit(-1);
+            return;
+        }
+
+        List<File> files = new ArrayList<File>();
+        if ( args.length==0 ) {
+            addSourceFiles(new File("test/main"), files);
+        }
+        for (String path: args) {
+            addSourceFiles(new File(path), files);
+        }
+        String encoding = System.getProperty("file.encoding");
+        int limit = Integer.getInteger("limit", 40);
+
+        ParserProfiler profiler = new ParserProfiler();
+        for (File file: files) {
+            CeylonLexer lexer = new CeylonLexer(new ANTLRFileStream(file.getPath(), encoding));
+            CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+            //lex the whole file up front, so that the time
+            //of the lexer is not charged to the parser
+            tokenStream.fill();
+            CeylonParser parser = constructor.newInstance(tokenStream, profiler);
+            parser.compilationUnit();
+            if ( !parser.getErrors().isEmpty() ) {
+                System.err.println("Syntax errors in " + file.getPath());
+            }
+        }
+        System.out.println("Parsed " + files.size() + " files");
+        profiler.printReport(System.out, limit);
+    }
+
+    private static void addSourceFiles(File file, List<File> files) {
+        if ( file.isDirectory() ) {
+            File[] children = file.listFiles();
+            if (children!=null) {
+                for (File child: children) {
+                    addSourceFiles(child, files);
+                }
+            }
+        }
+        else if ( file.getName().endsWith(".ceylon") ) {
+            files.add(file);
+        }
+    }
+
+}
@@ -1,11 +1,21 @@
 package main;
 import com.redhat.ceylon.compiler.typechecker.TypeChecker;
 import com.redhat.ceylon.compiler.typechecker.TypeCheckerBuilder;
+import com.redhat.ceylon.compiler.typechecker.context.PhasedUnit;
 import com.redhat.ceylon.compiler.typechecker.io.ClosableVirtualFile;
+import com.redhat.ceylon.compiler.typechecker.io.VirtualFile;
 import com.redhat.ceylon.compiler.typechecker.model.Module;
+import com.redhat.ceylon.compiler.typechecker.tree.Message;
+import com.redhat.ceylon.compiler.typechecker.tree.Node;
 import com.redhat.ceylon.compiler.typechecker.tree.Tree;
+import com.redhat.ceylon.compiler.typechecker.tree.Visitor;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Some hack before a proper unit test harness is put in place
@@ -66,6 +76,175 @@ public class MainForTest {
                 .getTypeChecker();
         typeChecker.process();
         latestZippedLanguageSourceFile.close();
+
+        testParallelism( new File("test/main") );
+        testScheduling();
+        testUpdate();
         System.out.println("Tests took " + ( (System.nanoTime()-start) / 1000000 ) + " ms");
     }
+
+    /**
+     * Check that type checking the given source directory
+     * concurrently reports the same errors, in the same 
+     * order, as type checking it sequentially.
+     */
+    private static void testParallelism(File srcDir) {
+        List<String> errors = getErrors( newTypeChecker(srcDir, 4) );
+        List<String> expectedErrors = getErrors( newTypeChecker(srcDir, 1) );
+        if ( !errors.equals(expectedErrors) ) {
+            throw new RuntimeException("Errors of a parallel type check of " + srcDir + 
+                    ": " + errors + " instead of " + expectedErrors);
+        }
+    }
+
+    /**
+     * Check a parallel type check of a long cycle of units,
+     * each of which refers to the previous one.
+     */
+    private static void testScheduling() throws IOException {
+        File srcDir = Files.createTempDirectory("scheduling").toFile();
+        try {
+            int length = 5000;
+            File packageDir = new File(srcDir, "chain");
+            packageDir.mkdirs();
+            for (int i=0; i<length; i++) {
+                String content = "shared class Chain" + i + "() {\n" + 
+                        "    shared Chain" + (i+length-1)%length + "? previous => null;\n" +
+                        "}\n";
+                Files.write(new File(packageDir, "Chain" + i + ".ceylon").toPath(), 
+                        content.getBytes(Charset.forName("UTF-8")));
+            }
+            testParallelism(srcDir);
+        }
+        finally {
+            delete(srcDir);
+        }
+    }
+
+    /**
+     * Change, add and remove source files, and check that
+     * the type checker reports the same errors, in the same
+     * order, after each update() as a new type checker.
+     */
+    private static void testUpdate() throws IOException {
+        File srcDir = Files.createTempDirectory("incremental").toFile();
+        try {
+            copy( new File("test/main/incremental"), new File(srcDir, "incremental") );
+            TypeChecker typeChecker = newTypeChecker(srcDir, 1);
+            //change the type of an inherited attribute
+            update(typeChecker, srcDir, "incremental/Base.ceylon", 
+                    "shared abstract class IncrementalBase() {\n" + 
+                    "    shared default String size => \"\";\n" +
+                    "    shared formal String name;\n" +
+                    "}\n");
+            //duplicate the declaration of a later unit
+            update(typeChecker, srcDir, "incremental/Added.ceylon", 
+                    "class IncrementalDerived() {}\n");
+            //change the return type of a toplevel function
+            update(typeChecker, srcDir, "incremental/Count.ceylon", 
+                    "String incrementalCount() => \"one\";\n");
+            //remove a declaration used by another package
+            update(typeChecker, srcDir, "incremental/Derived.ceylon", null);
+            //add a package, which requires a new context
+            update(typeChecker, srcDir, "incremental/fresh/Fresh.ceylon", 
+                    "import incremental { IncrementalBase }\n" +
+                    "IncrementalBase fresh() => nothing;\n");
+            //and continue from the new context
+            update(typeChecker, srcDir, "incremental/Base.ceylon", 
+                    "shared abstract class IncrementalBase() {}\n");
+        }
+        finally {
+            delete(srcDir);
+        }
+    }
+
+    private static TypeChecker newTypeChecker(File srcDir, int parallelism) {
+        TypeChecker typeChecker = new TypeCheckerBuilder()
+                .verbose(false)
+                .parallelism(parallelism)
+                .addSrcDirectory(srcDir)
+                .getTypeChecker();
+        typeChecker.process(true);
+        return typeChecker;
+    }
+
+    /**
+     * Write the given content to the given source file,
+     * or delete it if the content is null, update the type
+     * checker, and compare it to a new type checker.
+     */
+    private static void update(TypeChecker typeChecker, File srcDir, 
+            String path, String content) throws IOException {
+        File file = new File(srcDir, path);
+        VirtualFile virtualFile = typeChecker.getContext().getVfs().getFromFile(file);
+        List<VirtualFile> changed = new ArrayList<VirtualFile>();
+        List<VirtualFile> removed = new ArrayList<VirtualFile>();
+        if (content==null) {
+            file.delete();
+            removed.add(virtualFile);
+        }
+        else {
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+            changed.add(virtualFile);
+        }
+        typeChecker.update(changed, removed);
+        TypeChecker newTypeChecker = newTypeChecker(srcDir, 1);
+        if ( !getUnitPaths(typeChecker).equals( getUnitPaths(newTypeChecker) ) ) {
+            throw new RuntimeException("Units out of order after update of " + path);
+        }
+        List<String> errors = getErrors(typeChecker);
+        List<String> expectedErrors = getErrors(newTypeChecker);
+        if ( !errors.equals(expectedErrors) ) {
+            throw new RuntimeException("Errors after update of " + path + 
+                    ": " + errors + " instead of " + expectedErrors);
+        }
+    }
+
+    private static List<String> getUnitPaths(TypeChecker typeChecker) {
+        List<String> paths = new ArrayList<String>();
+        for (PhasedUnit pu: typeChecker.getPhasedUnits().getPhasedUnits()) {
+            paths.add( pu.getPathRelativeToSrcDir() );
+        }
+        return paths;
+    }
+
+    private static List<String> getErrors(TypeChecker typeChecker) {
+        final List<String> errors = new ArrayList<String>();
+        for (final PhasedUnit pu: typeChecker.getPhasedUnits().getPhasedUnits()) {
+            pu.getCompilationUnit().visit(new Visitor() {
+                @Override
+                public void visitAny(Node that) {
+                    for (Message error: that.getErrors()) {
+                        errors.add( pu.getPathRelativeToSrcDir() + ":" + 
+                                error.getLine() + ": " + error.getMessage() );
+                    }
+                    super.visitAny(that);
+                }
+            });
+        }
+        return errors;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        if ( from.isDirectory() ) {
+            to.mkdirs();
+            for (File child: from.listFiles()) {
+                copy( child, new File(to, child.getName()) );
+            }
+        }
+        else {
+            Files.copy( from.toPath(), to.toPath() );
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children!=null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
 }